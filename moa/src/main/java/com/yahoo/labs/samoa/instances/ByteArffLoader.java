@@ -0,0 +1,537 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package com.yahoo.labs.samoa.instances;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamTokenizer;
+import java.io.StringReader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Loader of Arff files that parses the data section directly from bytes read through a large buffer,
+ * rather than through StreamTokenizer. The header is parsed by ArffLoader. Numbers are parsed
+ * from bytes, values of nominal attributes are found in hashes of the bytes of their labels,
+ * built from the header, so that no objects are created for most values.
+ * The values are set with setValue, hence the class, instance id and time stamp columns
+ * are set exactly as by ArffLoader. The file is decoded with the default charset, as by the readers
+ * used with ArffLoader
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class ByteArffLoader extends ArffLoader {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // numbers of at most 15 digits divided by these powers of ten are rounded exactly as by Double.parseDouble
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private Charset charset = Charset.defaultCharset();
+
+    private ReadableByteChannel channel;
+
+    private ByteBuffer buffer;
+
+    private byte[] bytes;
+
+    // the bytes between position and limit were read, but not parsed yet
+    private int position;
+
+    private int limit;
+
+    private boolean endOfInput;
+
+    // the labels of nominal attributes, null for other attributes
+    private NominalValues[] nominalValues;
+
+    private boolean[] numeric;
+
+    /**
+     * Instantiates a new byte arff loader.
+     *
+     * @param inputStream the stream of the Arff file
+     * @param classAttribute the class attribute, as for ArffLoader
+     */
+    public ByteArffLoader(InputStream inputStream, int classAttribute) {
+        this(new DataSection(Channels.newChannel(inputStream)), classAttribute);
+    }
+
+    private ByteArffLoader(DataSection dataSection, int classAttribute) {
+        super(new StringReader(dataSection.header), 0, classAttribute);
+        this.channel = dataSection.channel;
+        this.buffer = dataSection.buffer;
+        this.bytes = this.buffer.array();
+        this.position = this.buffer.position();
+        this.limit = this.buffer.limit();
+        this.endOfInput = dataSection.endOfInput;
+
+        int numAttributes = this.instanceInformation.numAttributes();
+        this.numeric = new boolean[numAttributes];
+        this.nominalValues = new NominalValues[numAttributes];
+        for (int i = 0; i < numAttributes; i++) {
+            Attribute attribute = this.instanceInformation.attribute(i);
+            this.numeric[i] = attribute.isNumeric();
+            if (attribute.isNominal()) {
+                this.nominalValues[i] = new NominalValues(attribute.getAttributeValues(), this.charset);
+            }
+        }
+    }
+
+    /**
+     * Reads instance. It detects if it is dense or sparse.
+     *
+     * @return the instance, null at the end of the file
+     */
+    @Override
+    public Instance readInstance() {
+        try {
+            // skip empty lines and comments
+            int b = skipSeparators();
+            while (b == '\n' || b == '\r') {
+                this.position++;
+                b = skipSeparators();
+            }
+            if (b < 0) {
+                return null;
+            }
+            if (b == '{') {
+                return readSparse();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Unable to read Arff data", ex);
+        }
+        return readInstanceDense();
+    }
+
+    /**
+     * Reads a dense instance from the file.
+     *
+     * @return the instance, null at the end of the file
+     */
+    @Override
+    public Instance readInstanceDense() {
+        Instance instance = newDenseInstance(this.instanceInformation.numAttributes());
+        int numAttribute = 0;
+        try {
+            while (numAttribute == 0) {
+                //For each line
+                int b = skipSeparators();
+                while (b >= 0 && b != '\n' && b != '\r') {
+                    //For each item
+                    if (b == '{' || b == '}') {
+                        this.position++;
+                    } else {
+                        this.setValue(instance, numAttribute, readValue(numAttribute, b), this.numeric[numAttribute]);
+                        numAttribute++;
+                    }
+                    b = skipSeparators();
+                }
+                if (b < 0) {
+                    break;
+                }
+                this.position++;
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Unable to read Arff data", ex);
+        }
+        return (numAttribute > 0) ? instance : null;
+    }
+
+    // read a sparse instance, the position is at its '{'
+    private Instance readSparse() throws IOException {
+        Instance instance = newSparseInstance(1.0);
+        int[] indexValues = new int[16];
+        double[] attributeValues = new double[16];
+        int numValues = 0;
+        this.position++;
+        int b = skipSeparators();
+        while (b >= 0 && b != '\n' && b != '\r' && b != '}') {
+            int numAttribute = Integer.parseInt(readString(b));
+            b = skipSeparators();
+            if (b < 0 || b == '\n' || b == '\r' || b == '}') {
+                break;
+            }
+            // sparse instances are rare, their values are converted from strings as by ArffLoader
+            double value;
+            if (this.numeric[numAttribute]) {
+                value = Double.valueOf(readString(b)).doubleValue();
+            } else {
+                value = this.instanceInformation.attribute(numAttribute).indexOfValue(readString(b));
+            }
+            if (numValues == indexValues.length) {
+                indexValues = Arrays.copyOf(indexValues, 2 * numValues);
+                attributeValues = Arrays.copyOf(attributeValues, 2 * numValues);
+            }
+            indexValues[numValues] = numAttribute;
+            attributeValues[numValues] = value;
+            numValues++;
+            b = skipSeparators();
+        }
+        skipLine();
+        instance.addSparseValues(Arrays.copyOf(indexValues, numValues), Arrays.copyOf(attributeValues, numValues),
+                this.instanceInformation.numAttributes());
+        return instance;
+    }
+
+    // read the value of the attribute from the token starting with b at the position
+    private double readValue(int numAttribute, int b) throws IOException {
+        if (b == '"' || b == '\'') {
+            String value = readQuoted();
+            if ("?".equals(value)) {
+                return Double.NaN;
+            } else if (this.numeric[numAttribute]) {
+                return Double.valueOf(value).doubleValue();
+            }
+            return this.instanceInformation.attribute(numAttribute).indexOfValue(value);
+        }
+        // the word starts at the position, also after the buffer is refilled
+        int end = scanWord();
+        int start = this.position;
+        this.position = end;
+        if (end - start == 1 && this.bytes[start] == '?') {
+            return Double.NaN;
+        } else if (this.numeric[numAttribute]) {
+            return parseNumber(start, end);
+        } else if (this.nominalValues[numAttribute] != null) {
+            int index = this.nominalValues[numAttribute].get(this.bytes, start, end);
+            if (index < 0) {
+                // a label not declared in the header, it is added to the attribute
+                index = this.instanceInformation.attribute(numAttribute).indexOfValue(
+                        new String(this.bytes, start, end - start, this.charset));
+                this.nominalValues[numAttribute].put(Arrays.copyOfRange(this.bytes, start, end), index);
+            }
+            return index;
+        }
+        return this.instanceInformation.attribute(numAttribute).indexOfValue(
+                new String(this.bytes, start, end - start, this.charset));
+    }
+
+    // read a word or a quoted string starting with b at the position
+    private String readString(int b) throws IOException {
+        if (b == '"' || b == '\'') {
+            return readQuoted();
+        }
+        int end = scanWord();
+        String s = new String(this.bytes, this.position, end - this.position, this.charset);
+        this.position = end;
+        return s;
+    }
+
+    // find the end of the word starting at the position, the whole word is kept in the buffer
+    private int scanWord() throws IOException {
+        int end = this.position;
+        while (true) {
+            if (end == this.limit) {
+                int length = end - this.position;
+                if (!fill()) {
+                    return this.limit;
+                }
+                end = this.position + length;
+            }
+            int b = this.bytes[end] & 0xff;
+            if (b <= ' ' || b == ',' || b == '%' || b == '"' || b == '\'' || b == '{' || b == '}') {
+                return end;
+            }
+            end++;
+        }
+    }
+
+    // read the string in quotes starting at the position, ended by the matching quote or the end of the line
+    private String readQuoted() throws IOException {
+        int quote = this.bytes[this.position];
+        int end = this.position + 1;
+        boolean escaped = false;
+        while (true) {
+            if (end == this.limit) {
+                int length = end - this.position;
+                if (!fill()) {
+                    break;
+                }
+                end = this.position + length;
+            }
+            int b = this.bytes[end];
+            if (b == quote || b == '\n' || b == '\r') {
+                break;
+            }
+            if (b == '\\') {
+                escaped = true;
+                end++;
+                if (end == this.limit) {
+                    int length = end - this.position;
+                    if (!fill()) {
+                        break;
+                    }
+                    end = this.position + length;
+                }
+            }
+            end++;
+        }
+        String s;
+        if (escaped) {
+            // escape sequences are rare, they are resolved as by the tokenizer of ArffLoader
+            StreamTokenizer tokenizer = new StreamTokenizer(new StringReader(
+                    new String(this.bytes, this.position, end - this.position, this.charset)));
+            tokenizer.resetSyntax();
+            tokenizer.quoteChar(quote);
+            tokenizer.nextToken();
+            s = tokenizer.sval;
+        } else {
+            s = new String(this.bytes, this.position + 1, end - this.position - 1, this.charset);
+        }
+        // the closing quote is a part of the value, the end of the line is not
+        this.position = (end < this.limit && this.bytes[end] == quote) ? end + 1 : end;
+        return s;
+    }
+
+    // parse a number as Double.parseDouble does, plain decimal numbers are parsed without creating a string
+    private double parseNumber(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (this.bytes[i] == '-' || this.bytes[i] == '+')) {
+            negative = this.bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            int b = this.bytes[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = 10 * mantissa + (b - '0');
+                digits++;
+                if (point) {
+                    fractionDigits++;
+                }
+                if (mantissa >= MAX_EXACT_MANTISSA || fractionDigits >= POWERS_OF_TEN.length) {
+                    break;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (i < end || digits == 0) {
+            // exponents, long mantissas and the special values
+            return Double.parseDouble(new String(this.bytes, start, end - start, this.charset));
+        }
+        double value = (fractionDigits == 0) ? mantissa : mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    // skip spaces, commas and comments, returns the next byte, not consumed, or -1 at the end of the input
+    private int skipSeparators() throws IOException {
+        while (true) {
+            if (this.position == this.limit && !fill()) {
+                return -1;
+            }
+            int b = this.bytes[this.position] & 0xff;
+            if (b == '%') {
+                skipComment();
+            } else if ((b <= ' ' && b != '\n' && b != '\r') || b == ',') {
+                this.position++;
+            } else {
+                return b;
+            }
+        }
+    }
+
+    // skip the rest of the line, but not its end
+    private void skipComment() throws IOException {
+        while (this.position < this.limit || fill()) {
+            int b = this.bytes[this.position];
+            if (b == '\n' || b == '\r') {
+                return;
+            }
+            this.position++;
+        }
+    }
+
+    // skip the rest of the line including its end
+    private void skipLine() throws IOException {
+        skipComment();
+        if (this.position < this.limit) {
+            this.position++;
+        }
+    }
+
+    // read more bytes keeping the bytes from the position on, returns false at the end of the input
+    private boolean fill() throws IOException {
+        if (this.endOfInput) {
+            return false;
+        }
+        if (this.position > 0) {
+            System.arraycopy(this.bytes, this.position, this.bytes, 0, this.limit - this.position);
+            this.limit -= this.position;
+            this.position = 0;
+        }
+        if (this.limit == this.bytes.length) {
+            // a single token longer than the buffer
+            this.bytes = Arrays.copyOf(this.bytes, 2 * this.bytes.length);
+            this.buffer = ByteBuffer.wrap(this.bytes);
+        }
+        ((Buffer) this.buffer).limit(this.bytes.length);
+        ((Buffer) this.buffer).position(this.limit);
+        int count;
+        do {
+            count = this.channel.read(this.buffer);
+        } while (count == 0);
+        if (count < 0) {
+            this.endOfInput = true;
+            return false;
+        }
+        this.limit += count;
+        return true;
+    }
+
+    /**
+     * The header of an Arff file, up to the end of its @data line, and the bytes read after it
+     */
+    private static class DataSection {
+
+        private String header;
+
+        private ReadableByteChannel channel;
+
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private boolean endOfInput;
+
+        private DataSection(ReadableByteChannel channel) {
+            this.channel = channel;
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            try {
+                ((Buffer) buffer).limit(0);
+                while (true) {
+                    if (!buffer.hasRemaining()) {
+                        ((Buffer) buffer).clear();
+                        if (channel.read(buffer) < 0) {
+                            ((Buffer) buffer).limit(0);
+                            endOfInput = true;
+                            line.writeTo(headerBytes);
+                            break;
+                        }
+                        ((Buffer) buffer).flip();
+                        continue;
+                    }
+                    byte b = buffer.get();
+                    line.write(b);
+                    if (b == '\n' || b == '\r') {
+                        line.writeTo(headerBytes);
+                        boolean dataLine = isDataLine(line);
+                        line.reset();
+                        if (dataLine) {
+                            break;
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException("Unable to read Arff header", ex);
+            }
+            this.header = new String(headerBytes.toByteArray(), Charset.defaultCharset());
+        }
+
+        private static boolean isDataLine(ByteArrayOutputStream line) {
+            return new String(line.toByteArray(), Charset.defaultCharset()).trim().toUpperCase().startsWith("@DATA");
+        }
+    }
+
+    /**
+     * Hash of the labels of a nominal attribute, looked up with the bytes of a value
+     */
+    private static class NominalValues {
+
+        private byte[][] keys = new byte[16][];
+
+        private int[] indices = new int[16];
+
+        private int size;
+
+        private NominalValues(Iterable<String> labels, Charset charset) {
+            int index = 0;
+            for (String label : labels) {
+                put(label.getBytes(charset), index++);
+            }
+        }
+
+        private int get(byte[] bytes, int start, int end) {
+            int mask = this.keys.length - 1;
+            for (int slot = hash(bytes, start, end) & mask; this.keys[slot] != null; slot = (slot + 1) & mask) {
+                byte[] key = this.keys[slot];
+                if (key.length == end - start && equals(key, bytes, start)) {
+                    return this.indices[slot];
+                }
+            }
+            return -1;
+        }
+
+        // the index of a label given more than once is replaced, as in the map of Attribute
+        private void put(byte[] key, int index) {
+            if (2 * (this.size + 1) > this.keys.length) {
+                byte[][] oldKeys = this.keys;
+                int[] oldIndices = this.indices;
+                this.keys = new byte[2 * oldKeys.length][];
+                this.indices = new int[2 * oldKeys.length];
+                this.size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != null) {
+                        put(oldKeys[i], oldIndices[i]);
+                    }
+                }
+            }
+            int mask = this.keys.length - 1;
+            int slot = hash(key, 0, key.length) & mask;
+            while (this.keys[slot] != null) {
+                if (Arrays.equals(this.keys[slot], key)) {
+                    this.indices[slot] = index;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            this.keys[slot] = key;
+            this.indices[slot] = index;
+            this.size++;
+        }
+
+        private static int hash(byte[] bytes, int start, int end) {
+            int h = 0x811c9dc5;
+            for (int i = start; i < end; i++) {
+                h = (h ^ bytes[i]) * 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean equals(byte[] key, byte[] bytes, int start) {
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != bytes[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
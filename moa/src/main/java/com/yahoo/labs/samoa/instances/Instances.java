@@ -15,6 +15,7 @@
  */
 package com.yahoo.labs.samoa.instances;
 
+import java.io.InputStream;
 import java.io.Reader;
 import java.io.Serializable;
 import java.io.StringReader;
@@ -106,6 +107,19 @@ public class Instances implements Serializable {
         this.computeAttributesIndices();
     }
 
+    /**
+     * Instantiates a new instances read with ByteArffLoader.
+     *
+     * @param inputStream the stream of the Arff file
+     * @param classAttribute the class attribute
+     */
+    public Instances(InputStream inputStream, int classAttribute) {
+        arff = new ByteArffLoader(inputStream, classAttribute);
+        this.instanceInformation = arff.getStructure();
+        this.instances = new ArrayList<Instance>();
+        this.computeAttributesIndices();
+    }
+
     /**
      * Instantiates a new instances.
      *
@@ -105,6 +105,15 @@ public abstract class AbstractClassifier extends AbstractOptionHandler
     @Override
     public abstract double[] getVotesForInstance(Instance inst);
 
+    @Override
+    public double[][] getVotesForInstances(List<Example<Instance>> examples) {
+        Instance[] instances = new Instance[examples.size()];
+        for (int i = 0; i < instances.length; i++) {
+            instances[i] = examples.get(i).getData();
+        }
+        return getVotesForInstances(instances);
+    }
+
     @Override
     public Prediction getPredictionForInstance(Example<Instance> example){
 		return getPredictionForInstance(example.getData());
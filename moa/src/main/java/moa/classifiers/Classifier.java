@@ -76,6 +76,25 @@ public interface Classifier extends Learner<Example<Instance>> {
      * test instance in each class
      */
     public double[] getVotesForInstance(Instance inst);
+
+    /**
+     * Predicts the class memberships for a batch of instances, using the
+     * same model state for all of them. Classifiers able to share work
+     * between the instances of a batch may override this method, the
+     * result must be the same as calling getVotesForInstance for each
+     * instance in turn.
+     *
+     * @param instances the instances to be classified
+     * @return an array containing the votes for each instance, in the
+     * order of the instances
+     */
+    public default double[][] getVotesForInstances(Instance[] instances) {
+        double[][] votes = new double[instances.length][];
+        for (int i = 0; i < instances.length; i++) {
+            votes[i] = getVotesForInstance(instances[i]);
+        }
+        return votes;
+    }
     
     /**
      * Sets the reference to the header of the data stream. The header of the
@@ -28,6 +28,7 @@ import moa.core.AutoExpandVector;
 import moa.core.DoubleVector;
 import moa.core.Measurement;
 import moa.core.StringUtils;
+import moa.learners.ConcurrentPredictor;
 import com.yahoo.labs.samoa.instances.Instance;
 
 /**
@@ -45,7 +46,7 @@ import com.yahoo.labs.samoa.instances.Instance;
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  * @version $Revision: 7 $
  */
-public class NaiveBayes extends AbstractClassifier  implements MultiClassClassifier {
+public class NaiveBayes extends AbstractClassifier  implements MultiClassClassifier, ConcurrentPredictor {
 
     private static final long serialVersionUID = 1L;
 
@@ -84,6 +85,12 @@ public class NaiveBayes extends AbstractClassifier  implements MultiClassClassif
                 this.attributeObservers);
     }
 
+    @Override
+    public double[][] getVotesForInstances(Instance[] instances) {
+        return doNaiveBayesPrediction(instances, this.observedClassDistribution,
+                this.attributeObservers);
+    }
+
     @Override
     protected Measurement[] getModelMeasurementsImpl() {
         return null;
@@ -149,6 +156,46 @@ public class NaiveBayes extends AbstractClassifier  implements MultiClassClassif
         return votes;
     }
 
+    // Naive Bayes Prediction for a batch of instances
+    // class priors and attribute observers are looked up once per batch, the votes of every instance
+    // are multiplied in the same order as in doNaiveBayesPrediction(Instance, ...)
+    public static double[][] doNaiveBayesPrediction(Instance[] instances,
+            DoubleVector observedClassDistribution,
+            AutoExpandVector<AttributeClassObserver> attributeObservers) {
+        int numClasses = observedClassDistribution.numValues();
+        double[][] votes = new double[instances.length][numClasses];
+        int numModelAttributes = 0;
+        for (Instance inst : instances) {
+            numModelAttributes = Math.max(numModelAttributes, inst.numAttributes() - 1);
+        }
+        double observedClassSum = observedClassDistribution.sumOfValues();
+        for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+            double prior = observedClassDistribution.getValue(classIndex)
+                    / observedClassSum;
+            for (int i = 0; i < instances.length; i++) {
+                votes[i][classIndex] = prior;
+            }
+            for (int attIndex = 0; attIndex < numModelAttributes; attIndex++) {
+                AttributeClassObserver obs = attributeObservers.get(attIndex);
+                if (obs == null) {
+                    continue;
+                }
+                for (int i = 0; i < instances.length; i++) {
+                    Instance inst = instances[i];
+                    if (attIndex >= inst.numAttributes() - 1) {
+                        continue;
+                    }
+                    int instAttIndex = modelAttIndexToInstanceAttIndex(attIndex,
+                            inst);
+                    if (!inst.isMissing(instAttIndex)) {
+                        votes[i][classIndex] *= obs.probabilityOfAttributeValueGivenClass(inst.value(instAttIndex), classIndex);
+                    }
+                }
+            }
+        }
+        return votes;
+    }
+
     // Naive Bayes Prediction using log10 for VFDR rules 
     public static double[] doNaiveBayesPredictionLog(Instance inst,
             DoubleVector observedClassDistribution,
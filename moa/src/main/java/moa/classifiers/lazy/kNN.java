@@ -97,30 +97,63 @@ public class kNN extends AbstractClassifier implements MultiClassClassifier {
 
 	@Override
     public double[] getVotesForInstance(Instance inst) {
-		double v[] = new double[C+1];
 		try {
-			NearestNeighbourSearch search;
-			if (this.nearestNeighbourSearchOption.getChosenIndex()== 0) {
-				search = new LinearNNSearch(this.window);  
-			} else {
-				search = new KDTree();
-				search.setInstances(this.window);
-			}	
-			if (this.window.numInstances()>0) {	
-				Instances neighbours = search.kNearestNeighbours(inst,Math.min(kOption.getValue(),this.window.numInstances()));
-				for(int i = 0; i < neighbours.numInstances(); i++) {
-					v[(int)neighbours.instance(i).classValue()]++;
-				}
-			}
+			return getVotesForInstance(inst, newNearestNeighbourSearch());
 		} catch(Exception e) {
 			//System.err.println("Error: kNN search failed.");
 			//e.printStackTrace();
 			//System.exit(1);
 			return new double[inst.numClasses()];
 		}
-		return v;
     }
 
+	@Override
+	public double[][] getVotesForInstances(Instance[] instances) {
+		// the search structure depends on the window only, so it is built once for the whole batch
+		double[][] votes = new double[instances.length][];
+		NearestNeighbourSearch search;
+		try {
+			search = newNearestNeighbourSearch();
+		} catch(Exception e) {
+			search = null;
+		}
+		for (int i = 0; i < instances.length; i++) {
+			if (search != null) {
+				try {
+					votes[i] = getVotesForInstance(instances[i], search);
+				} catch(Exception e) {
+					votes[i] = null;
+				}
+			}
+			if (votes[i] == null) {
+				votes[i] = new double[instances[i].numClasses()];
+			}
+		}
+		return votes;
+	}
+
+	protected NearestNeighbourSearch newNearestNeighbourSearch() throws Exception {
+		NearestNeighbourSearch search;
+		if (this.nearestNeighbourSearchOption.getChosenIndex()== 0) {
+			search = new LinearNNSearch(this.window);  
+		} else {
+			search = new KDTree();
+			search.setInstances(this.window);
+		}
+		return search;
+	}
+
+	protected double[] getVotesForInstance(Instance inst, NearestNeighbourSearch search) throws Exception {
+		double v[] = new double[C+1];
+		if (this.window.numInstances()>0) {	
+			Instances neighbours = search.kNearestNeighbours(inst,Math.min(kOption.getValue(),this.window.numInstances()));
+			for(int i = 0; i < neighbours.numInstances(); i++) {
+				v[(int)neighbours.instance(i).classValue()]++;
+			}
+		}
+		return v;
+	}
+
     @Override
     protected Measurement[] getModelMeasurementsImpl() {
         return null;
@@ -219,6 +219,45 @@ public class AdaptiveRandomForest extends AbstractClassifier implements MultiCla
         return combinedVote.getArrayRef();
     }
 
+    @Override
+    public double[][] getVotesForInstances(Instance[] instances) {
+        if(instances.length == 0)
+            return new double[0][];
+        Instance[] testInstances = new Instance[instances.length];
+        DoubleVector[] combinedVotes = new DoubleVector[instances.length];
+        for(int j = 0 ; j < instances.length ; ++j) {
+            testInstances[j] = instances[j].copy();
+            combinedVotes[j] = new DoubleVector();
+        }
+        if(this.ensemble == null) 
+            initEnsemble(testInstances[0]);
+
+        // trees are visited in the same order as for a single instance, so votes are combined identically
+        for(int i = 0 ; i < this.ensemble.length ; ++i) {
+            double[][] treeVotes = this.ensemble[i].getVotesForInstances(testInstances);
+            double acc = Double.NaN;
+            for(int j = 0 ; j < testInstances.length ; ++j) {
+                DoubleVector vote = new DoubleVector(treeVotes[j]);
+                if (vote.sumOfValues() > 0.0) {
+                    vote.normalize();
+                    if(Double.isNaN(acc))
+                        acc = this.ensemble[i].evaluator.getPerformanceMeasurements()[1].getValue();
+                    if(! this.disableWeightedVote.isSet() && acc > 0.0) {                        
+                        for(int v = 0 ; v < vote.numValues() ; ++v) {
+                            vote.setValue(v, vote.getValue(v) * acc);
+                        }
+                    }
+                    combinedVotes[j].addValues(vote);
+                }
+            }
+        }
+        double[][] votes = new double[instances.length][];
+        for(int j = 0 ; j < instances.length ; ++j) {
+            votes[j] = combinedVotes[j].getArrayRef();
+        }
+        return votes;
+    }
+
     @Override
     public boolean isRandomizable() {
         return true;
@@ -442,6 +481,10 @@ public class AdaptiveRandomForest extends AbstractClassifier implements MultiCla
             return vote.getArrayRef();
         }
 
+        public double[][] getVotesForInstances(Instance[] instances) {
+            return this.classifier.getVotesForInstances(instances);
+        }
+
         @Override
         public void getDescription(StringBuilder sb, int indent) {
         }
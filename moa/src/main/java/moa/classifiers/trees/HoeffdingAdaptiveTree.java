@@ -399,6 +399,15 @@ public class HoeffdingAdaptiveTree extends HoeffdingTree {
             }*/
         }
 
+        @Override
+        public double[][] getClassVotes(Instance[] instances, HoeffdingTree ht) {
+            double[][] votes = new double[instances.length][];
+            for (int i = 0; i < instances.length; i++) {
+                votes[i] = getClassVotes(instances[i], ht);
+            }
+            return votes;
+        }
+
         @Override
         public double[] getClassVotes(Instance inst, HoeffdingTree ht) {
             double[] dist;
@@ -505,4 +514,14 @@ public class HoeffdingAdaptiveTree extends HoeffdingTree {
         }
         return new double[0];
     }
+
+    @Override
+    public double[][] getVotesForInstances(Instance[] instances) {
+        // instances may follow several paths in this tree, so they are predicted one by one
+        double[][] votes = new double[instances.length][];
+        for (int i = 0; i < instances.length; i++) {
+            votes[i] = getVotesForInstance(instances[i]);
+        }
+        return votes;
+    }
 }
@@ -21,7 +21,10 @@ package moa.classifiers.trees;
 
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -46,6 +49,7 @@ import moa.core.Measurement;
 import moa.core.SizeOf;
 import moa.core.StringUtils;
 import moa.core.Utils;
+import moa.learners.ConcurrentPredictor;
 import moa.options.ClassOption;
 import com.yahoo.labs.samoa.instances.Instance;
 
@@ -93,7 +97,7 @@ import com.yahoo.labs.samoa.instances.Instance;
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  * @version $Revision: 7 $
  */
-public class HoeffdingTree extends AbstractClassifier implements MultiClassClassifier {
+public class HoeffdingTree extends AbstractClassifier implements MultiClassClassifier, ConcurrentPredictor {
 
     private static final long serialVersionUID = 1L;
 
@@ -213,6 +217,15 @@ public FlagOption binarySplitsOption = new FlagOption("binarySplits", 'b',
             return this.observedClassDistribution.getArrayCopy();
         }
 
+        // votes for a batch of instances reaching this node
+        public double[][] getClassVotes(Instance[] instances, HoeffdingTree ht) {
+            double[][] votes = new double[instances.length][];
+            for (int i = 0; i < instances.length; i++) {
+                votes[i] = getClassVotes(instances[i], ht);
+            }
+            return votes;
+        }
+
         public boolean observedClassDistributionIsPure() {
             return this.observedClassDistribution.numNonZeroEntries() < 2;
         }
@@ -558,6 +571,45 @@ public FlagOption binarySplitsOption = new FlagOption("binarySplits", 'b',
           }
     }
 
+    @Override
+    public double[][] getVotesForInstances(Instance[] instances) {
+        double[][] votes = new double[instances.length][];
+        if (this.treeRoot == null) {
+            for (int i = 0; i < instances.length; i++) {
+                votes[i] = new double[instances[i].dataset().numClasses()];
+            }
+            return votes;
+        }
+        // route all instances first, so that every leaf is asked for the votes of its instances once
+        Map<Node, List<Integer>> instancesPerLeaf = new IdentityHashMap<Node, List<Integer>>();
+        for (int i = 0; i < instances.length; i++) {
+            FoundNode foundNode = this.treeRoot.filterInstanceToLeaf(instances[i],
+                    null, -1);
+            Node leafNode = foundNode.node;
+            if (leafNode == null) {
+                leafNode = foundNode.parent;
+            }
+            List<Integer> leafInstances = instancesPerLeaf.get(leafNode);
+            if (leafInstances == null) {
+                leafInstances = new ArrayList<Integer>();
+                instancesPerLeaf.put(leafNode, leafInstances);
+            }
+            leafInstances.add(i);
+        }
+        for (Map.Entry<Node, List<Integer>> entry : instancesPerLeaf.entrySet()) {
+            List<Integer> leafInstances = entry.getValue();
+            Instance[] leafBatch = new Instance[leafInstances.size()];
+            for (int j = 0; j < leafBatch.length; j++) {
+                leafBatch[j] = instances[leafInstances.get(j)];
+            }
+            double[][] leafVotes = entry.getKey().getClassVotes(leafBatch, this);
+            for (int j = 0; j < leafBatch.length; j++) {
+                votes[leafInstances.get(j)] = leafVotes[j];
+            }
+        }
+        return votes;
+    }
+
     @Override
     protected Measurement[] getModelMeasurementsImpl() {
         return new Measurement[]{
@@ -864,6 +916,16 @@ public FlagOption binarySplitsOption = new FlagOption("binarySplits", 'b',
             return super.getClassVotes(inst, ht);
         }
 
+        @Override
+        public double[][] getClassVotes(Instance[] instances, HoeffdingTree ht) {
+            if (getWeightSeen() >= ht.nbThresholdOption.getValue()) {
+                return NaiveBayes.doNaiveBayesPrediction(instances,
+                        this.observedClassDistribution,
+                        this.attributeObservers);
+            }
+            return super.getClassVotes(instances, ht);
+        }
+
         @Override
         public void disableAttribute(int attIndex) {
             // should not disable poor atts - they are used in NB calc
@@ -903,6 +965,19 @@ public FlagOption binarySplitsOption = new FlagOption("binarySplits", 'b',
             return NaiveBayes.doNaiveBayesPrediction(inst,
                     this.observedClassDistribution, this.attributeObservers);
         }
+
+        @Override
+        public double[][] getClassVotes(Instance[] instances, HoeffdingTree ht) {
+            if (this.mcCorrectWeight > this.nbCorrectWeight) {
+                double[][] votes = new double[instances.length][];
+                for (int i = 0; i < instances.length; i++) {
+                    votes[i] = this.observedClassDistribution.getArrayCopy();
+                }
+                return votes;
+            }
+            return NaiveBayes.doNaiveBayesPrediction(instances,
+                    this.observedClassDistribution, this.attributeObservers);
+        }
     }
 
     protected LearningNode newLearningNode() {
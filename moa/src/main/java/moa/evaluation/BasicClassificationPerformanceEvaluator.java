@@ -35,6 +35,7 @@ import moa.tasks.TaskMonitor;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Classification evaluator that performs basic incremental evaluation.
@@ -121,11 +122,26 @@ public class BasicClassificationPerformanceEvaluator extends AbstractOptionHandl
 
     public void reset(int numClasses) {
         this.numClasses = numClasses;
+        resetEstimators(numClasses);
+        this.lastSeenClass = 0;
+        this.totalWeightObserved = 0;       
+        this.totalPredictionCount = 0;
+        this.predictionsInBufferCount = 0;
+        this.instancesInBufferCount = 0;
+        this.totalRepredictionCountForFinishedInstances = 0;
+        
+    }
+
+    
+
+    
+    // create the estimators of all measurements
+    protected void resetEstimators(int numClasses) {
         this.rowKappa = new Estimator[numClasses];
         this.columnKappa = new Estimator[numClasses];
         this.precision = new Estimator[numClasses];
         this.recall = new Estimator[numClasses];
-        for (int i = 0; i < this.numClasses; i++) {
+        for (int i = 0; i < numClasses; i++) {
             this.rowKappa[i] = newEstimator();
             this.columnKappa[i] = newEstimator();
             this.precision[i] = newEstimator();
@@ -134,18 +150,8 @@ public class BasicClassificationPerformanceEvaluator extends AbstractOptionHandl
         this.weightCorrect = newEstimator();
         this.weightCorrectNoChangeClassifier = newEstimator();
         this.weightMajorityClassifier = newEstimator();
-        this.lastSeenClass = 0;
-        this.totalWeightObserved = 0;       
-        this.totalPredictionCount = 0;
-        this.predictionsInBufferCount = 0;
-        this.instancesInBufferCount = 0;
-        this.totalRepredictionCountForFinishedInstances = 0;
-        
     }
 
-    
-
-    
     // add result based on prediction made in one of previous bins
     public void addClonedResult(Example<Instance> example, double[] classVotes) 
     {
@@ -177,38 +183,72 @@ public class BasicClassificationPerformanceEvaluator extends AbstractOptionHandl
                 }
                 this.totalPredictionCount=this.totalPredictionCount+1;
                 this.totalWeightObserved += weight;
-                this.weightCorrect.add(predictedClass == trueClass ? weight : 0);
-                for (int i = 0; i < this.numClasses; i++) {
-                    this.rowKappa[i].add(predictedClass == i ? weight : 0);
-                    this.columnKappa[i].add(trueClass == i ? weight : 0);
-                    // for both precision and recall, NaN values are used to 'balance' the number
-                    // of instances seen across classes
-                    if (predictedClass == i) {
-                        precision[i].add(predictedClass == trueClass ? weight : 0.0);
-                    } else precision[i].add(Double.NaN);
-                    if (trueClass == i) {
-                        recall[i].add(predictedClass == trueClass ? weight : 0.0);
-                    } else recall[i].add(Double.NaN);
-                }
+                addClassificationResult(predictedClass, trueClass, weight);
             }
-            this.weightCorrectNoChangeClassifier.add(this.lastSeenClass == trueClass ? weight : 0);
-            this.weightMajorityClassifier.add(getMajorityClass() == trueClass ? weight : 0);
+            addBaselineResult(this.lastSeenClass == trueClass, getMajorityClass() == trueClass, weight);
             this.lastSeenClass = trueClass;
         }
     }
 
+    // update the estimators with a classification of positive weight
+    protected void addClassificationResult(int predictedClass, int trueClass, double weight) {
+        this.weightCorrect.add(predictedClass == trueClass ? weight : 0);
+        for (int i = 0; i < this.numClasses; i++) {
+            this.rowKappa[i].add(predictedClass == i ? weight : 0);
+            this.columnKappa[i].add(trueClass == i ? weight : 0);
+            // for both precision and recall, NaN values are used to 'balance' the number
+            // of instances seen across classes
+            if (predictedClass == i) {
+                precision[i].add(predictedClass == trueClass ? weight : 0.0);
+            } else precision[i].add(Double.NaN);
+            if (trueClass == i) {
+                recall[i].add(predictedClass == trueClass ? weight : 0.0);
+            } else recall[i].add(Double.NaN);
+        }
+    }
+
+    // update the estimators of no change and majority class classifiers, used for every labelled instance
+    protected void addBaselineResult(boolean noChangeCorrect, boolean majorityCorrect, double weight) {
+        this.weightCorrectNoChangeClassifier.add(noChangeCorrect ? weight : 0);
+        this.weightMajorityClassifier.add(majorityCorrect ? weight : 0);
+    }
+
     private int getMajorityClass() {
         int majorityClass = 0;
         double maxProbClass = 0.0;
         for (int i = 0; i < this.numClasses; i++) {
-            if (this.columnKappa[i].estimation() > maxProbClass) {
+            if (getColumnKappaEstimation(i) > maxProbClass) {
                 majorityClass = i;
-                maxProbClass = this.columnKappa[i].estimation();
+                maxProbClass = getColumnKappaEstimation(i);
             }
         }
         return majorityClass;
     }
 
+    protected double getRowKappaEstimation(int classIndex) {
+        return this.rowKappa[classIndex].estimation();
+    }
+
+    protected double getColumnKappaEstimation(int classIndex) {
+        return this.columnKappa[classIndex].estimation();
+    }
+
+    protected double getPrecisionEstimation(int classIndex) {
+        return this.precision[classIndex].estimation();
+    }
+
+    protected double getRecallEstimation(int classIndex) {
+        return this.recall[classIndex].estimation();
+    }
+
+    protected double getNoChangeClassifierEstimation() {
+        return this.weightCorrectNoChangeClassifier.estimation();
+    }
+
+    protected double getMajorityClassifierEstimation() {
+        return this.weightMajorityClassifier.estimation();
+    }
+
     @Override
     public Measurement[] getPerformanceMeasurements() {
         ArrayList<Measurement> measurements = new ArrayList<Measurement>();
@@ -296,8 +336,8 @@ public class BasicClassificationPerformanceEvaluator extends AbstractOptionHandl
 	
 	public double getAverageRepredictionPerInstanceCount()
 	{
-		if (this.totalWeightObserved>0)
-			return this.totalRepredictionCountForFinishedInstances/this.totalWeightObserved;
+		if (this.getTotalWeightObserved()>0)
+			return this.totalRepredictionCountForFinishedInstances/this.getTotalWeightObserved();
 		else
 			return 0;
 	}
@@ -318,8 +358,8 @@ public class BasicClassificationPerformanceEvaluator extends AbstractOptionHandl
             double p0 = getFractionCorrectlyClassified();
             double pc = 0.0;
             for (int i = 0; i < this.numClasses; i++) {
-                pc += this.rowKappa[i].estimation()
-                        * this.columnKappa[i].estimation();
+                pc += getRowKappaEstimation(i)
+                        * getColumnKappaEstimation(i);
             }
             return (p0 - pc) / (1.0 - pc);
         } else {
@@ -330,7 +370,7 @@ public class BasicClassificationPerformanceEvaluator extends AbstractOptionHandl
     public double getKappaTemporalStatistic() {
         if (this.getTotalWeightObserved() > 0.0) {
             double p0 = getFractionCorrectlyClassified();
-            double pc = this.weightCorrectNoChangeClassifier.estimation();
+            double pc = getNoChangeClassifierEstimation();
 
             return (p0 - pc) / (1.0 - pc);
         } else {
@@ -341,7 +381,7 @@ public class BasicClassificationPerformanceEvaluator extends AbstractOptionHandl
     private double getKappaMStatistic() {
         if (this.getTotalWeightObserved() > 0.0) {
             double p0 = getFractionCorrectlyClassified();
-            double pc = this.weightMajorityClassifier.estimation();
+            double pc = getMajorityClassifierEstimation();
 
             return (p0 - pc) / (1.0 - pc);
         } else {
@@ -351,26 +391,26 @@ public class BasicClassificationPerformanceEvaluator extends AbstractOptionHandl
 
     public double getPrecisionStatistic() {
         double total = 0;
-        for (Estimator ck : this.precision) {
-            total += ck.estimation();
+        for (int i = 0; i < this.numClasses; i++) {
+            total += getPrecisionEstimation(i);
         }
-        return total / this.precision.length;
+        return total / this.numClasses;
     }
 
     public double getPrecisionStatistic(int numClass) {
-        return this.precision[numClass].estimation();
+        return getPrecisionEstimation(numClass);
     }
 
     public double getRecallStatistic() {
         double total = 0;
-        for (Estimator ck : this.recall) {
-            total += ck.estimation();
+        for (int i = 0; i < this.numClasses; i++) {
+            total += getRecallEstimation(i);
         }
-        return total / this.recall.length;
+        return total / this.numClasses;
     }
 
     public double getRecallStatistic(int numClass) {
-        return this.recall[numClass].estimation();
+        return getRecallEstimation(numClass);
     }
 
     public double getF1Statistic() {
@@ -432,55 +472,91 @@ public class BasicClassificationPerformanceEvaluator extends AbstractOptionHandl
         return new BasicEstimator();
     }
 
+	// buffers reused while aggregating many predictions made for one instance
+	private transient double[] aggregationBuffer;
+
+	private transient double[] binaryVotesBuffer;
+
 	public int getNumClasses() {
 		return numClasses;
 	}
 	 public void addMultipleResultsForInstance(Example<Instance> instance, ArrayList <PredictionItem> predictionsToMerge){
 	
-		 double weightedVotes[] = this.getAggregateDecision(predictionsToMerge, this.getNumClasses());
-		 double aggregatedVotes[] = getBinaryVotes(weightedVotes);
+		 double[] aggregatedVotes = this.startAggregateDecision(instance);
+		 for (int currentPredictionIndex=1;currentPredictionIndex<predictionsToMerge.size();currentPredictionIndex++)
+		 {
+			 // previous prediction (possibly from previous bin) remains valid until the next one 
+			 aggregatedVotes = this.addToAggregateDecision(aggregatedVotes,
+					 predictionsToMerge.get(currentPredictionIndex - 1).getClassVotes(),
+					 predictionsToMerge.get(currentPredictionIndex).getPredictionTimeStamp()-
+					 predictionsToMerge.get(currentPredictionIndex-1).getPredictionTimeStamp());
+		 }
 		 // for this bin, produce just one aggregated prediction
-		 this.addResult(instance, aggregatedVotes);
+		 this.addAggregatedResultForInstance(instance, aggregatedVotes,
+				 predictionsToMerge.get(predictionsToMerge.size()-1).getPredictionTimeStamp()-
+				 predictionsToMerge.get(0).getPredictionTimeStamp());
 	 }
-	 
 
-		private double[] getAggregateDecision(ArrayList<PredictionItem> predictionsForPeriod,int classCount)
+		// the votes aggregated for one bin and the 0/1 votes produced from them are kept in buffers reused
+		// between instances, as the aggregated votes are consumed immediately by addResult
+		// the buffers are sized by the classes of the instance, the evaluator may not have seen any result yet
+		public double[] startAggregateDecision(Example<Instance> instance)
 		{
-			double[] aggregatedVotes;
-			double weightedImpact[] = new double[classCount];
+			int classCount = instance.getData().numClasses();
+			if (aggregationBuffer == null || aggregationBuffer.length != classCount) {
+				aggregationBuffer = new double[classCount];
+			} else {
+				Arrays.fill(aggregationBuffer, 0);
+			}
+			return aggregationBuffer;
+		}
 
-			for (int currentPredictionIndex=1;currentPredictionIndex<predictionsForPeriod.size();currentPredictionIndex++)
-			{
-				// previous prediction (possibly from previous bin) remains valid until the next one 
-				double votes[]=predictionsForPeriod.get(currentPredictionIndex - 1).getClassVotes();
-				
-				votes = this.getBinaryVotes(votes);
-				for (int vote=0;vote<votes.length;vote++)
-				{
-					weightedImpact[vote]+=votes[vote]*
-							(predictionsForPeriod.get(currentPredictionIndex).getPredictionTimeStamp()-
-									predictionsForPeriod.get(currentPredictionIndex-1).getPredictionTimeStamp());
+		// every prediction contributes 0/1 vote for a single class weighted with the time it remained valid for
+		public double[] addToAggregateDecision(double[] aggregatedVotes, double[] classVotes, long duration)
+		{
+			if (aggregatedVotes == null) {
+				aggregatedVotes = new double[classVotes.length];
+			}
+			if (classVotes.length == 0) {
+				return aggregatedVotes;
+			}
+			int maxVote = getMaxVote(classVotes, classVotes.length);
+			if (aggregatedVotes.length <= maxVote) {
+				boolean reusedBuffer = (aggregatedVotes == aggregationBuffer);
+				aggregatedVotes = Arrays.copyOf(aggregatedVotes, classVotes.length);
+				if (reusedBuffer) {
+					aggregationBuffer = aggregatedVotes;
 				}
 			}
-
-			aggregatedVotes = this.getBinaryVotes(weightedImpact);
+			aggregatedVotes[maxVote]+=duration;
 			return aggregatedVotes;
 		}
-		// convert table of probabilities/ranks to 0/1 vote for a single class
-		private double[] getBinaryVotes(double[] doubleVotes)
+
+		public void addAggregatedResultForInstance(Example<Instance> instance, double[] aggregatedVotes, long duration)
+		{
+			int classCount = Math.max(instance.getData().numClasses(), aggregatedVotes.length);
+			if (binaryVotesBuffer == null || binaryVotesBuffer.length != classCount) {
+				binaryVotesBuffer = new double[classCount];
+			} else {
+				Arrays.fill(binaryVotesBuffer, 0);
+			}
+			if (classCount > 0) {
+				binaryVotesBuffer[getMaxVote(aggregatedVotes, aggregatedVotes.length)] = 1;
+			}
+			// for this bin, produce just one aggregated prediction
+			this.addResult(instance, binaryVotesBuffer);
+		}
+
+		// get the index of the first largest vote among the first voteCount votes
+		private static int getMaxVote(double[] doubleVotes, int voteCount)
 		{
-			double[] binaryVotes = new double[doubleVotes.length];
 			int maxVote=0;
-			for (int i=0;i<doubleVotes.length;i++)
+			for (int i=0;i<voteCount;i++)
 			{
 				if (doubleVotes[maxVote]<doubleVotes[i])
 					maxVote=i;
 			}
-			for (int vote=0;vote<doubleVotes.length;vote++)
-			{
-				binaryVotes[vote]=(maxVote==vote)? 1: 0;
-			}
-			return binaryVotes;
+			return maxVote;
 		}
 
 }
@@ -223,34 +223,55 @@ public class BasicRegressionPerformanceEvaluator extends AbstractOptionHandler
 	@Override
 	public void addMultipleResultsForInstance(Example<Instance> instance,
 			ArrayList<PredictionItem> predictionsToMerge) {
-		 double weightedVotes[] = this.getAggregateDecision(predictionsToMerge);
-		
-		 // for this bin, produce just one aggregated prediction
-		 this.addResult(instance, weightedVotes);
-		
+		double[] aggregatedVotes = this.startAggregateDecision(instance);
+		for (int currentPredictionIndex=1;currentPredictionIndex<predictionsToMerge.size();currentPredictionIndex++)
+		{
+			// previous prediction (possibly from previous bin) remains valid until the next one 
+			aggregatedVotes = this.addToAggregateDecision(aggregatedVotes,
+					predictionsToMerge.get(currentPredictionIndex - 1).getClassVotes(),
+					predictionsToMerge.get(currentPredictionIndex).getPredictionTimeStamp()-
+					predictionsToMerge.get(currentPredictionIndex-1).getPredictionTimeStamp());
+		}
+		// for this bin, produce just one aggregated prediction
+		this.addAggregatedResultForInstance(instance, aggregatedVotes,
+				predictionsToMerge.get(predictionsToMerge.size()-1).getPredictionTimeStamp()-
+				predictionsToMerge.get(0).getPredictionTimeStamp());
 	}
-	
-	private double[] getAggregateDecision(ArrayList<PredictionItem> predictionsForPeriod)
+
+	// buffers reused while aggregating many predictions made for one instance
+	private transient double[] aggregationBuffer;
+
+	private transient double[] aggregatedPredictionBuffer;
+
+	public double[] startAggregateDecision(Example<Instance> instance)
 	{
-		double[] aggregatedVotes=new double[1];
-		double weightedAnswer=0;
+		if (aggregationBuffer == null) {
+			aggregationBuffer = new double[1];
+		}
+		aggregationBuffer[0] = 0;
+		return aggregationBuffer;
+	}
 
-		for (int currentPredictionIndex=1;currentPredictionIndex<predictionsForPeriod.size();currentPredictionIndex++)
-		{
-			// previous prediction (possibly from previous bin) remains valid until the next one 
-			double vote=predictionsForPeriod.get(currentPredictionIndex - 1).getClassVotes()[0];
-			
-			weightedAnswer+=vote*
-					(predictionsForPeriod.get(currentPredictionIndex).getPredictionTimeStamp()-
-							predictionsForPeriod.get(currentPredictionIndex-1).getPredictionTimeStamp());	
-			}
-		
-
-		aggregatedVotes[0]=weightedAnswer/(predictionsForPeriod.get(predictionsForPeriod.size()-1).getPredictionTimeStamp()-
-				predictionsForPeriod.get(0).getPredictionTimeStamp());
+	// every prediction contributes its value weighted with the time it remained valid for
+	public double[] addToAggregateDecision(double[] aggregatedVotes, double[] classVotes, long duration)
+	{
+		if (aggregatedVotes == null) {
+			aggregatedVotes = new double[1];
+		}
+		aggregatedVotes[0]+=classVotes[0]*duration;
 		return aggregatedVotes;
 	}
 
+	public void addAggregatedResultForInstance(Example<Instance> instance, double[] aggregatedVotes, long duration)
+	{
+		if (aggregatedPredictionBuffer == null) {
+			aggregatedPredictionBuffer = new double[1];
+		}
+		aggregatedPredictionBuffer[0] = aggregatedVotes[0]/duration;
+		// for this bin, produce just one aggregated prediction
+		this.addResult(instance, aggregatedPredictionBuffer);
+	}
+
 	public void incrementTotalNumberOfRepredictionsForFinishedInstances(int valueToAdd)
 	{
 		this.totalRepredictionCountForFinishedInstances+=valueToAdd;
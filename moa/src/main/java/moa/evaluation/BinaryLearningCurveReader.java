@@ -0,0 +1,182 @@
+/*
+ *    BinaryLearningCurveReader.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Class that reads a learning curve written by BinaryLearningCurveWriter. The records are memory-mapped
+ * rather than read, so that single columns of large files can be accessed without reading the whole file.
+ * The file consists of:
+ * - a header of little-endian ints: magic number, version, number of columns, offset of the first record,
+ * followed by the length and UTF-8 bytes of the name of every column, padded with zeros to the offset
+ * of the first record, being a multiple of 8 bytes,
+ * - records of little-endian doubles, one value per column, NaN for missing values,
+ * i.e. the records can be mapped by other tools as a matrix of doubles starting at the offset of the first record
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class BinaryLearningCurveReader {
+
+	private static final int HEADER_SIZE = 16;
+
+	private File file;
+
+	private RandomAccessFile randomAccessFile;
+
+	private ArrayList<String> columnNames = new ArrayList<String>();
+
+	private long dataOffset;
+
+	private int numEntries;
+
+	// the records are mapped in segments of whole records, so that files larger than 2GB can be mapped
+	private int segmentEntries;
+
+	private DoubleBuffer[] segments;
+
+	public BinaryLearningCurveReader(File file) {
+		this.file = file;
+		try {
+			this.randomAccessFile = new RandomAccessFile(file, "r");
+			FileChannel channel = this.randomAccessFile.getChannel();
+			ByteBuffer header = read(channel, 0, HEADER_SIZE);
+			if (header.getInt() != BinaryLearningCurveWriter.MAGIC
+					|| header.getInt() != BinaryLearningCurveWriter.VERSION) {
+				this.randomAccessFile.close();
+				throw new RuntimeException("Not a binary learning curve file: " + file);
+			}
+			int numColumns = header.getInt();
+			this.dataOffset = header.getInt();
+			ByteBuffer names = read(channel, HEADER_SIZE, (int) this.dataOffset - HEADER_SIZE);
+			for (int i = 0; i < numColumns; i++) {
+				byte[] name = new byte[names.getInt()];
+				names.get(name);
+				this.columnNames.add(new String(name, StandardCharsets.UTF_8));
+			}
+
+			// a record partially written when a run was interrupted is ignored
+			long recordSize = 8L * numColumns;
+			this.numEntries = (recordSize == 0) ? 0 : (int) ((channel.size() - this.dataOffset) / recordSize);
+			this.segmentEntries = (recordSize == 0) ? 1 : (int) (Integer.MAX_VALUE / recordSize);
+			this.segments = new DoubleBuffer[(this.numEntries + this.segmentEntries - 1) / this.segmentEntries];
+			for (int i = 0; i < this.segments.length; i++) {
+				int entries = Math.min(this.segmentEntries, this.numEntries - i * this.segmentEntries);
+				this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						this.dataOffset + i * this.segmentEntries * recordSize, entries * recordSize)
+						.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to read binary result file: " + file, ex);
+		}
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+		((Buffer) buffer).flip();
+		return buffer;
+	}
+
+	public int numColumns() {
+		return this.columnNames.size();
+	}
+
+	public String getColumnName(int columnIndex) {
+		return this.columnNames.get(columnIndex);
+	}
+
+	public int numEntries() {
+		return this.numEntries;
+	}
+
+	// the offset of the first record in the file
+	public long getDataOffset() {
+		return this.dataOffset;
+	}
+
+	public double getValue(int entryIndex, int columnIndex) {
+		if (entryIndex >= this.numEntries) {
+			throw new IndexOutOfBoundsException("Entry: " + entryIndex + ", entries: " + this.numEntries);
+		}
+		return this.segments[entryIndex / this.segmentEntries]
+				.get((entryIndex % this.segmentEntries) * numColumns() + columnIndex);
+	}
+
+	// the names of the columns in the form of a csv dump file header
+	public String headerToString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < numColumns(); i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(getColumnName(i));
+		}
+		return sb.toString();
+	}
+
+	// the values of an entry in the form of a csv dump file line
+	public String entryToString(int entryIndex) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < numColumns(); i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			double val = getValue(entryIndex, i);
+			if (Double.isNaN(val)) {
+				sb.append('?');
+			} else {
+				sb.append(Double.toString(val));
+			}
+		}
+		return sb.toString();
+	}
+
+	// write the curve in the format of csv dump files
+	public void writeCsv(PrintStream out) {
+		out.println(headerToString());
+		for (int i = 0; i < this.numEntries; i++) {
+			out.println(entryToString(i));
+		}
+	}
+
+	public void close() {
+		this.segments = new DoubleBuffer[0];
+		try {
+			this.randomAccessFile.close();
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to close binary result file: " + this.file, ex);
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ *    BinaryLearningCurveWriter.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class that writes the entries of a learning curve to a binary file of fixed-width records, as a faster
+ * and smaller alternative to csv dump files. The file starts with a header holding the names of the measurements,
+ * padded to a multiple of 8 bytes, followed by one record of little-endian doubles per entry, NaN for missing values.
+ * The number of entries follows from the length of the file, so that the file can be appended to, truncated
+ * at a record boundary and memory-mapped as it is. The columns are fixed by the header, measurements appearing
+ * in the curve after the header was written are not written and a warning is printed.
+ * See BinaryLearningCurveReader for the details of the format
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class BinaryLearningCurveWriter {
+
+	public static final int MAGIC = 0x4d4f414c;
+
+	public static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private File file;
+
+	private FileChannel channel;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+	// the number of columns of every record, -1 until the header is written
+	private int numColumns = -1;
+
+	// the number of measurements of the curve already written or reported as not written
+	private int numReportedMeasurements;
+
+	// file - the file to write to
+	// append - append entries to the records of the file, if it exists, rather than overwrite it
+	public BinaryLearningCurveWriter(File file, boolean append) {
+		this.file = file;
+		try {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+			this.channel = randomAccessFile.getChannel();
+			if (append && this.channel.size() > 0) {
+				BinaryLearningCurveReader reader = new BinaryLearningCurveReader(file);
+				this.numColumns = reader.numColumns();
+				this.numReportedMeasurements = this.numColumns;
+				reader.close();
+			} else {
+				this.channel.truncate(0);
+			}
+			this.channel.position(this.channel.size());
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to open binary result file: " + file, ex);
+		}
+	}
+
+	// write the entryIndex-th entry of the curve, the header is written with the first entry
+	public void writeEntry(LearningCurve learningCurve, int entryIndex) {
+		if (this.numColumns < 0) {
+			writeHeader(learningCurve);
+		}
+		if (learningCurve.numMeasurements() > this.numReportedMeasurements) {
+			StringBuilder names = new StringBuilder();
+			for (int i = this.numReportedMeasurements; i < learningCurve.numMeasurements(); i++) {
+				names.append((names.length() == 0) ? "" : ", ").append(learningCurve.getMeasurementName(i));
+			}
+			System.err.println("[WARNING] Measurements not in the header of " + this.file + " are not written: " + names);
+			this.numReportedMeasurements = learningCurve.numMeasurements();
+		}
+		int numValues = Math.min(this.numColumns, learningCurve.numMeasurements());
+		for (int i = 0; i < this.numColumns; i++) {
+			if (this.buffer.remaining() < 8) {
+				flushBuffer();
+			}
+			this.buffer.putDouble((i < numValues) ? learningCurve.getMeasurementColumn(i)[entryIndex] : Double.NaN);
+		}
+	}
+
+	private void writeHeader(LearningCurve learningCurve) {
+		this.numColumns = learningCurve.numMeasurements();
+		this.numReportedMeasurements = this.numColumns;
+		byte[][] names = new byte[this.numColumns][];
+		int headerSize = 16;
+		for (int i = 0; i < this.numColumns; i++) {
+			names[i] = learningCurve.getMeasurementName(i).getBytes(StandardCharsets.UTF_8);
+			headerSize += 4 + names[i].length;
+		}
+		int dataOffset = (headerSize + 7) & ~7;
+		ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(this.numColumns);
+		header.putInt(dataOffset);
+		for (byte[] name : names) {
+			header.putInt(name.length);
+			header.put(name);
+		}
+		((Buffer) header).clear();
+		write(header);
+	}
+
+	// write the buffered records to the file
+	public void flush() {
+		flushBuffer();
+	}
+
+	public void close() {
+		flushBuffer();
+		try {
+			this.channel.close();
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to close binary result file: " + this.file, ex);
+		}
+	}
+
+	private void flushBuffer() {
+		((Buffer) this.buffer).flip();
+		write(this.buffer);
+		((Buffer) this.buffer).clear();
+	}
+
+	private void write(ByteBuffer data) {
+		try {
+			while (data.hasRemaining()) {
+				this.channel.write(data);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to write binary result file: " + this.file, ex);
+		}
+	}
+
+}
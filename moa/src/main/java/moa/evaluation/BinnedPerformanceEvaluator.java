@@ -38,5 +38,22 @@ public interface BinnedPerformanceEvaluator<E extends Example> extends LearningP
 	public void setPredictionsInBufferCount(double instancesInBufferCount);
 	public void setInstancesInBufferCount(double instancesInBufferCount);
     public void addClonedResult(Example<Instance> example, double[] classVotes);
+    // add the same result based on prediction made in one of previous bins to bins fromBin..toBin of binEvaluators,
+    // called for the evaluator of bin fromBin, so that evaluators keeping the statistics of many bins can update the range at once
+    public default void addClonedResults(BinnedPerformanceEvaluator<Example<Instance>>[] binEvaluators, int fromBin, int toBin,
+            Example<Instance> example, double[] classVotes) {
+        for (int bin = fromBin; bin <= toBin; bin++) {
+            binEvaluators[bin].addClonedResult(example, classVotes);
+        }
+    }
+
+    // get zeroed aggregated votes to fold the predictions made for the instance within one bin into
+    // the evaluator can reuse them once the aggregated result has been added
+    public double[] startAggregateDecision(Example<Instance> instance);
+    // fold one prediction valid for the given period into the aggregated votes of a bin, as done by addMultipleResultsForInstance
+    // aggregatedVotes can be null for the first prediction folded, the updated aggregated votes are returned
+    public double[] addToAggregateDecision(double[] aggregatedVotes, double[] classVotes, long duration);
+    // add one result for an instance based on the aggregated votes of the predictions made during the period of given duration
+    public void addAggregatedResultForInstance(Example<Instance> instance, double[] aggregatedVotes, long duration);
 
 }
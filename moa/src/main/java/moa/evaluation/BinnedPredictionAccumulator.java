@@ -0,0 +1,217 @@
+/*
+ *    BinnedPredictionAccumulator.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.Serializable;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.core.Example;
+
+/**
+ * Class that maps the predictions made for one instance awaiting its true label to bins as the predictions are made.
+ * Bin boundaries are based on the time stamp at which the true label is expected, known when the instance arrives,
+ * rather than the time stamp of true label arrival. Hence, predictions do not have to be retained until
+ * the true label arrives. Instead, one result per bin is kept i.e. the only prediction made within a bin,
+ * the time-weighted aggregate of many predictions made within a bin or the prediction cloned from the preceding bin.
+ * When the true label arrives exactly at the expected time, bin evaluators receive the same results as
+ * from InstanceInProgress.mapPredictionsToBins
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class BinnedPredictionAccumulator implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final byte EMPTY_BIN = 0;
+
+	private static final byte SINGLE_PREDICTION = 1;
+
+	private static final byte AGGREGATED_PREDICTIONS = 2;
+
+	private static final byte CLONED_PREDICTION = 3;
+
+	private BinnedPerformanceEvaluator<Example<Instance>>[] binEvaluators;
+
+	private int binCount;
+
+	private long expectedLabelTimeStamp;
+
+	private long firstTimeStamp;
+
+	private int predictionCount;
+
+	private double[] firstVotes;
+
+	private double[] finalVotes;
+
+	// the results kept for periodic bins 1..binCount
+	private byte[] binContents;
+
+	private double[][] binVotes;
+
+	// the length of the period aggregated votes of a bin were collected for
+	private long[] binDurations;
+
+	// the last prediction made so far
+	private double[] lastVotes;
+
+	private long lastTimeStamp;
+
+	// the bin of the last re-prediction, 0 if no re-prediction was made yet
+	private int lastBinProcessed;
+
+	// votes valid at the beginning of the last bin processed i.e. made before its first prediction
+	private double[] binStartVotes;
+
+	private int lastBinPredictionCount;
+
+	public BinnedPredictionAccumulator(long expectedLabelTimeStamp,
+			BinnedPerformanceEvaluator<Example<Instance>>[] binEvaluators) {
+		this.expectedLabelTimeStamp = expectedLabelTimeStamp;
+		this.binEvaluators = binEvaluators;
+		this.binCount = binEvaluators.length - 2;
+		this.binContents = new byte[binCount + 1];
+		this.binVotes = new double[binCount + 1][];
+	}
+
+	public long getExpectedLabelTimeStamp() {
+		return expectedLabelTimeStamp;
+	}
+
+	public int getPredictionCount() {
+		return predictionCount;
+	}
+
+	public void addPrediction(double[] classVotes, long predictionTimeStamp, PredictionItem.PredictionType predictionType) {
+		switch (predictionType) {
+		case FIRST_PREDICTION:
+			firstVotes = classVotes;
+			firstTimeStamp = predictionTimeStamp;
+			break;
+
+		case FINAL_PREDICTION:
+			closeLastBin();
+			// add potentially missing predictions for preceding bins
+			cloneLastVotes(binCount + 1);
+			finalVotes = classVotes;
+			break;
+
+		case REPREDICTION:
+			int binIndex = getPeriodicBinIndexForTime(predictionTimeStamp);
+			if (binIndex == lastBinProcessed) {
+				// next prediction comes from the same bin, so the predictions made in it are aggregated
+				BinnedPerformanceEvaluator<Example<Instance>> binEvaluator = binEvaluators[binIndex];
+				if (lastBinPredictionCount == 1) {
+					// votes from previous bin are used at the beginning of the period
+					binVotes[binIndex] = binEvaluator.addToAggregateDecision(null, binStartVotes,
+							lastTimeStamp - getBinStartTimeStamp(binIndex));
+					binContents[binIndex] = AGGREGATED_PREDICTIONS;
+				}
+				binVotes[binIndex] = binEvaluator.addToAggregateDecision(binVotes[binIndex], lastVotes,
+						predictionTimeStamp - lastTimeStamp);
+				lastBinPredictionCount++;
+			} else {
+				closeLastBin();
+				cloneLastVotes(binIndex);
+				binStartVotes = lastVotes;
+				binVotes[binIndex] = classVotes;
+				binContents[binIndex] = SINGLE_PREDICTION;
+				lastBinProcessed = binIndex;
+				lastBinPredictionCount = 1;
+			}
+			break;
+		}
+		lastVotes = classVotes;
+		lastTimeStamp = predictionTimeStamp;
+		predictionCount++;
+	}
+
+	// add the results kept for all bins to bin evaluators, once the true label is known
+	public void mapPredictionsToBins(Example<Instance> example) {
+		binEvaluators[0].addResult(example, firstVotes);
+		for (int bin = 1; bin <= binCount; bin++) {
+			switch (binContents[bin]) {
+			case SINGLE_PREDICTION:
+				binEvaluators[bin].addResult(example, binVotes[bin]);
+				break;
+			case AGGREGATED_PREDICTIONS:
+				binEvaluators[bin].addAggregatedResultForInstance(example, binVotes[bin], binDurations[bin]);
+				break;
+			case CLONED_PREDICTION:
+				// the bins skipped at once share the votes they were cloned from, so they are added as one range
+				int lastClonedBin = bin;
+				while (lastClonedBin < binCount && binContents[lastClonedBin + 1] == CLONED_PREDICTION
+						&& binVotes[lastClonedBin + 1] == binVotes[bin]) {
+					lastClonedBin++;
+				}
+				binEvaluators[bin].addClonedResults(binEvaluators, bin, lastClonedBin, example, binVotes[bin]);
+				bin = lastClonedBin;
+				break;
+			}
+		}
+		binEvaluators[binCount + 1].addResult(example, finalVotes);
+	}
+
+	// get the index of one of intermediate bins corresponding to the time of the prediction
+	// predictions made after expected label time are placed in the last but one bin
+	public int getPeriodicBinIndexForTime(long predictionTimeStamp) {
+		if (expectedLabelTimeStamp <= firstTimeStamp) {
+			return binCount;
+		}
+		int bin = 1 + (int) Math.floor(((1.0 * predictionTimeStamp - firstTimeStamp)
+				/ (expectedLabelTimeStamp - firstTimeStamp)) * binCount);
+		return Math.min(bin, binCount);
+	}
+
+	private long getBinStartTimeStamp(int binIndex) {
+		return (long) Math.floor(((binIndex - 1) / ((double) binCount)) * (expectedLabelTimeStamp - firstTimeStamp)
+				+ firstTimeStamp);
+	}
+
+	private long getBinEndTimeStamp(int binIndex) {
+		long binEndTimeStamp = (long) Math.floor((binIndex / ((double) binCount))
+				* (expectedLabelTimeStamp - firstTimeStamp) + firstTimeStamp);
+		// the last periodic bin ends with the last prediction made in it when the label is late
+		return Math.max(binEndTimeStamp, lastTimeStamp);
+	}
+
+	// complete the aggregation of predictions made in the last bin processed
+	private void closeLastBin() {
+		if (binContents[lastBinProcessed] == AGGREGATED_PREDICTIONS && lastBinPredictionCount > 0) {
+			long binEndTimeStamp = getBinEndTimeStamp(lastBinProcessed);
+			binVotes[lastBinProcessed] = binEvaluators[lastBinProcessed].addToAggregateDecision(
+					binVotes[lastBinProcessed], lastVotes, binEndTimeStamp - lastTimeStamp);
+			if (binDurations == null) {
+				binDurations = new long[binCount + 1];
+			}
+			binDurations[lastBinProcessed] = binEndTimeStamp - getBinStartTimeStamp(lastBinProcessed);
+		}
+		lastBinPredictionCount = 0;
+	}
+
+	// use the last prediction for the bins skipped before the given bin
+	private void cloneLastVotes(int binIndex) {
+		for (int bin = lastBinProcessed + 1; bin < binIndex; bin++) {
+			binVotes[bin] = lastVotes;
+			binContents[bin] = CLONED_PREDICTION;
+		}
+	}
+
+}
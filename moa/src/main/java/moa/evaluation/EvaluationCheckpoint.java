@@ -0,0 +1,224 @@
+/*
+ *    EvaluationCheckpoint.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.core.Example;
+import moa.learners.Learner;
+
+/**
+ * Class that holds the state of a prequential evaluation with delayed labels, so that a run can be resumed
+ * from the last checkpoint. The learner and the evaluators are serialized, while the instances waiting
+ * for their true labels and the learning curves, growing with the length of the run, are written
+ * in a compact binary form. The checkpoint is written to a temporary file renamed once it is complete,
+ * so that a crash while writing leaves the previous checkpoint intact.
+ * The stream is not part of the checkpoint, it is restarted and the instances processed before
+ * the checkpoint are skipped
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class EvaluationCheckpoint {
+
+	private static final int MAGIC = 0x4d4f4143;
+
+	private static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// the roles of the output files, the lengths of the files are recorded by their roles rather than
+	// by their paths, so that a run given relative paths can be resumed from another working directory
+	public static final String DUMP_FILE = "dump";
+
+	public static final String BIN_DUMP_FILE = "bin dump";
+
+	public static final String PREDICTION_FILE = "predictions";
+
+	public static final String REPREDICTION_FILE = "repredictions";
+
+	@SuppressWarnings("rawtypes")
+	public Learner learner;
+
+	@SuppressWarnings("rawtypes")
+	public LearningPerformanceEvaluator evaluator;
+
+	public BinnedPerformanceEvaluator<Example<Instance>>[] binEvaluators;
+
+	public InstancesInProgress instancesInProgress;
+
+	public LearningCurve learningCurve;
+
+	public LearningCurve learningBinCurve;
+
+	public ModelSizeEstimator modelSizeEstimator;
+
+	public long instancesProcessed;
+
+	// CPU time elapsed since the start of the evaluation and since its start until the last sample
+	public long evaluationTime;
+
+	public long lastEvaluationTime;
+
+	public double RAMHours;
+
+	public boolean firstDump;
+
+	// the lengths of the output files at the time of the checkpoint by the roles of the files
+	public Map<String, Long> outputFileLengths = new LinkedHashMap<String, Long>();
+
+	// the CPU times of the phases of the evaluation by the names of the phases, empty if phases are not timed
+	public Map<String, Long> phaseTimes = new LinkedHashMap<String, Long>();
+
+	public void writeToFile(File file) {
+		File tempFile = new File(file.getPath() + ".tmp");
+		try {
+			FileOutputStream fileOut = new FileOutputStream(tempFile);
+			ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(instancesProcessed);
+			out.writeLong(evaluationTime);
+			out.writeLong(lastEvaluationTime);
+			out.writeDouble(RAMHours);
+			out.writeBoolean(firstDump);
+			out.writeInt(outputFileLengths.size());
+			for (Map.Entry<String, Long> outputFileLength : outputFileLengths.entrySet()) {
+				out.writeUTF(outputFileLength.getKey());
+				out.writeLong(outputFileLength.getValue());
+			}
+			out.writeInt(phaseTimes.size());
+			for (Map.Entry<String, Long> phaseTime : phaseTimes.entrySet()) {
+				out.writeUTF(phaseTime.getKey());
+				out.writeLong(phaseTime.getValue());
+			}
+			out.writeObject(learner);
+			out.writeObject(evaluator);
+			out.writeObject(binEvaluators);
+			instancesInProgress.writeTo(out);
+			learningCurve.writeTo(out);
+			learningBinCurve.writeTo(out);
+			modelSizeEstimator.writeTo(out);
+			// the checkpoint is on disk before it replaces the previous one, also if the power fails
+			out.flush();
+			fileOut.getChannel().force(true);
+			out.close();
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to write checkpoint file: " + file, ex);
+		}
+	}
+
+	// read the checkpoint, instancesInProgress, learningCurve, learningBinCurve and modelSizeEstimator have to be set
+	// to the empty objects the state is restored into
+	@SuppressWarnings("unchecked")
+	public void readFromFile(File file) {
+		try {
+			ObjectInputStream in = new ObjectInputStream(
+					new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+			int magic = in.readInt();
+			int version = in.readInt();
+			if (magic != MAGIC) {
+				in.close();
+				throw new RuntimeException("Not a checkpoint file: " + file);
+			}
+			if (version != VERSION) {
+				in.close();
+				throw new RuntimeException("Unsupported version " + version + " of checkpoint file: " + file);
+			}
+			instancesProcessed = in.readLong();
+			evaluationTime = in.readLong();
+			lastEvaluationTime = in.readLong();
+			RAMHours = in.readDouble();
+			firstDump = in.readBoolean();
+			outputFileLengths = new LinkedHashMap<String, Long>();
+			int numOutputFiles = in.readInt();
+			for (int i = 0; i < numOutputFiles; i++) {
+				String outputFile = in.readUTF();
+				outputFileLengths.put(outputFile, in.readLong());
+			}
+			phaseTimes = new LinkedHashMap<String, Long>();
+			int numPhases = in.readInt();
+			for (int i = 0; i < numPhases; i++) {
+				String phase = in.readUTF();
+				phaseTimes.put(phase, in.readLong());
+			}
+			learner = (Learner) in.readObject();
+			evaluator = (LearningPerformanceEvaluator) in.readObject();
+			binEvaluators = (BinnedPerformanceEvaluator<Example<Instance>>[]) in.readObject();
+			instancesInProgress.readFrom(in);
+			learningCurve.readFrom(in);
+			learningBinCurve.readFrom(in);
+			modelSizeEstimator.readFrom(in);
+			in.close();
+		} catch (IOException | ClassNotFoundException ex) {
+			throw new RuntimeException("Unable to read checkpoint file: " + file, ex);
+		}
+	}
+
+	// record the lengths of the output files given by their roles at the time of the checkpoint,
+	// null files are not written
+	public void recordOutputFiles(Map<String, File> files) {
+		outputFileLengths = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, File> file : files.entrySet()) {
+			if (file.getValue() != null) {
+				outputFileLengths.put(file.getKey(), file.getValue().length());
+			}
+		}
+	}
+
+	// cut off the results appended to the output files after the checkpoint was written,
+	// files not recorded in the checkpoint are left intact
+	public void truncateOutputFiles(Map<String, File> files) {
+		for (Map.Entry<String, File> outputFile : files.entrySet()) {
+			File file = outputFile.getValue();
+			Long outputFileLength = (file == null) ? null : outputFileLengths.get(outputFile.getKey());
+			if (outputFileLength == null || !file.exists() || file.length() <= outputFileLength) {
+				continue;
+			}
+			try {
+				RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+				randomAccessFile.setLength(outputFileLength);
+				randomAccessFile.close();
+			} catch (IOException ex) {
+				throw new RuntimeException("Unable to truncate output file: " + file, ex);
+			}
+		}
+	}
+
+}
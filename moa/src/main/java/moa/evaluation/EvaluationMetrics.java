@@ -0,0 +1,72 @@
+/*
+ *    EvaluationMetrics.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.File;
+
+/**
+ * Class that holds the live metrics of a prequential evaluation with delayed labels, i.e.
+ * the throughput, the latencies of the learner, the state of the buffer of instances waiting
+ * for their true labels and the size of the model. The metrics are updated by the evaluation
+ * and periodically written as JSON, so that a long run can be watched without slowing it down
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class EvaluationMetrics {
+
+	private MetricsRegistry registry = new MetricsRegistry();
+
+	public final MetricsRegistry.Counter instances = registry.counter("instances");
+
+	public final MetricsRegistry.Counter labelledInstances = registry.counter("labelledInstances");
+
+	public final MetricsRegistry.Counter repredictions = registry.counter("repredictions");
+
+	public final MetricsRegistry.Gauge instancesInBuffer = registry.gauge("instancesInBuffer");
+
+	public final MetricsRegistry.Gauge predictionsInBuffer = registry.gauge("predictionsInBuffer");
+
+	public final MetricsRegistry.Gauge learnerByteSize = registry.gauge("learnerByteSize");
+
+	public final MetricsRegistry.LatencyRecorder predictLatency = registry.latencyRecorder("predict");
+
+	public final MetricsRegistry.LatencyRecorder trainLatency = registry.latencyRecorder("train");
+
+	// the time of re-predicting all instances due for re-prediction at a tick
+	public final MetricsRegistry.LatencyRecorder repredictLatency = registry.latencyRecorder("repredict");
+
+	// the time of mapping the predictions made for a labelled instance to bins
+	public final MetricsRegistry.LatencyRecorder binMappingLatency = registry.latencyRecorder("binMapping");
+
+	// file - the file the metrics are written to every intervalMillis milliseconds
+	public EvaluationMetrics(File file, long intervalMillis) {
+		registry.startSnapshots(file, intervalMillis);
+	}
+
+	public void updateBuffer(InstancesInProgress instancesInProgress) {
+		instancesInBuffer.set(instancesInProgress.size());
+		predictionsInBuffer.set(instancesInProgress.getPredictionCount());
+	}
+
+	// stop writing metrics, the final metrics are written
+	public void close() {
+		registry.close();
+	}
+
+}
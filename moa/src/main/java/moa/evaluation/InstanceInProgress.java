@@ -19,32 +19,91 @@
  */
 package moa.evaluation;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
+import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstanceImpl;
+import com.yahoo.labs.samoa.instances.Instances;
 
 import moa.core.Example;
+import moa.core.InstanceExample;
 
 /**
  * Class that contains one instance awaiting its true label in delayed labelling setting
  * The instance can contain possibly many predictions produced by an evolving model during the period
- * preceding true label arrival
+ * preceding true label arrival, kept in primitive arrays of a prediction history or, if the time
+ * the true label is expected at is known, mapped to bins as they are made
  * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
  */
 public class InstanceInProgress {
 
-	private ArrayList<PredictionItem> predictions = new ArrayList<PredictionItem>();
+	private PredictionHistory predictions;
 
+	// used instead of the prediction history when the time the true label is expected at is known
+	private BinnedPredictionAccumulator binAccumulator;
+
+	// the number of bytes preceding attribute values in the compact form: instance class, weight, id, time stamp
+	// and number of values
+	private static final int COMPACT_FORM_HEADER_SIZE = 1 + 8 + 8 + 8 + 4;
+
+	// the number of predictions made for this instance
+	private int predictionCount;
+
+	// the number of re-predictions among the predictions made for this instance
+	private int repredictionCount;
+
+	// the id of the instance, known also when the instance is spilled to disk
+	private long instanceId;
+
+	// the position of the record the example and the predictions were spilled to, -1 if they are kept on heap
+	private long spillPosition = -1;
+
+	// get the predictions made so far as separate prediction items
+	// predictions are not retained when they are mapped to bins as they are made
 	public ArrayList<PredictionItem> getPredictions() {
+		ArrayList<PredictionItem> predictionItems = new ArrayList<PredictionItem>();
+		for (int i = 0; predictions != null && i < predictions.size(); i++) {
+			predictionItems.add(predictions.getPredictionItem(i));
+		}
+		return predictionItems;
+	}
+
+	public PredictionHistory getPredictionHistory() {
 		return predictions;
 	}
 
-	public Instance getInstance() {
-		return example.getData();
+	public BinnedPredictionAccumulator getBinAccumulator() {
+		return binAccumulator;
+	}
+
+	public void addPrediction(PredictionItem predictionItem) {
+		addPrediction(predictionItem.getClassVotes(), predictionItem.getPredictionTimeStamp(),
+				predictionItem.getPredictionType());
+	}
+
+	public void addPrediction(double[] classVotes, long predictionTimeStamp, PredictionItem.PredictionType predictionType) {
+		if (binAccumulator != null) {
+			binAccumulator.addPrediction(classVotes, predictionTimeStamp, predictionType);
+		} else {
+			predictions.add(classVotes, predictionTimeStamp, predictionType);
+		}
+		predictionCount++;
+		if (predictionType==PredictionItem.PredictionType.REPREDICTION)
+			repredictionCount++;
+	}
+
+	public int getPredictionCount() {
+		return predictionCount;
 	}
 
-	public long getInstancesPassed() {
-		return instancesPassed;
+	public int getRepredictionCount() {
+		return repredictionCount;
+	}
+
+	public Instance getInstance() {
+		return example.getData();
 	}
 
 	private Example<Instance> example;
@@ -53,17 +112,156 @@ public class InstanceInProgress {
 		return example;
 	}
 
-	// the number of labelled instances that passed (and were used to update the model) since making first prediction for this instance
+	public long getInstanceId() {
+		return instanceId;
+	}
+
+	public boolean isSpilled() {
+		return spillPosition >= 0;
+	}
+
+	public long getSpillPosition() {
+		return spillPosition;
+	}
+
+	// release the example and the predictions once they were written to a spill file at the given position
+	void spill(long spillPosition) {
+		this.spillPosition = spillPosition;
+		this.example = null;
+		this.predictions = null;
+	}
+
+	// bring back the example and the predictions read from a spill file
+	void restore(ByteBuffer buffer, Instances dataset) {
+		this.spillPosition = -1;
+		readCompactForm(buffer, dataset);
+	}
+
+	// check if the example can be written in a compact binary form i.e. the instance has dense attribute values
+	public boolean hasCompactExample() {
+		if (!(example instanceof InstanceExample)) {
+			return false;
+		}
+		Instance instance = getInstance();
+		return (instance.getClass() == InstanceImpl.class || instance.getClass() == DenseInstance.class)
+				&& instance.numValues() == instance.numAttributes();
+	}
+
+	// check if the example and the predictions can be written in a compact binary form i.e. the example
+	// can be written in a compact form and the predictions are kept in a prediction history
+	public boolean hasCompactForm() {
+		return predictions != null && hasCompactExample();
+	}
+
+	// the number of bytes written by writeCompactExample
+	public int getCompactExampleSize() {
+		return COMPACT_FORM_HEADER_SIZE + 8 * getInstance().numAttributes();
+	}
+
+	// the number of bytes written by writeCompactForm
+	public int getCompactFormSize() {
+		return getCompactExampleSize() + predictions.getRecordSize();
+	}
+
+	// write the instance class, weight, id, time stamp and attribute values of the instance
+	public void writeCompactExample(ByteBuffer buffer) {
+		Instance instance = getInstance();
+		int numValues = instance.numAttributes();
+		buffer.put((byte) (instance.getClass() == DenseInstance.class ? 1 : 0));
+		buffer.putDouble(instance.weight());
+		buffer.putLong((long) instance.instanceId());
+		buffer.putLong(instance.instanceTimeStamp());
+		buffer.putInt(numValues);
+		for (int i = 0; i < numValues; i++) {
+			buffer.putDouble(instance.value(i));
+		}
+	}
+
+	// write the example followed by the prediction history
+	public void writeCompactForm(ByteBuffer buffer) {
+		writeCompactExample(buffer);
+		predictions.writeTo(buffer);
+	}
+
+	// read the example written by writeCompactExample
+	// dataset - the header of the instance
+	void readCompactExample(ByteBuffer buffer, Instances dataset) {
+		boolean denseInstance = buffer.get() == 1;
+		double weight = buffer.getDouble();
+		long instanceId = buffer.getLong();
+		long instanceTimeStamp = buffer.getLong();
+		double[] values = new double[buffer.getInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = buffer.getDouble();
+		}
+		Instance instance = denseInstance ? new DenseInstance(weight, values) : new InstanceImpl(weight, values);
+		if (dataset != null) {
+			instance.setDataset(dataset);
+		}
+		instance.setInstanceId(instanceId);
+		instance.setInstanceTimeStamp(instanceTimeStamp);
+		this.example = new InstanceExample(instance);
+	}
+
+	// read the example and the predictions written by writeCompactForm
+	void readCompactForm(ByteBuffer buffer, Instances dataset) {
+		readCompactExample(buffer, dataset);
+		this.predictions = PredictionHistory.readFrom(buffer);
+	}
+
+	// the number of labelled instances that arrived before making first prediction for this instance
 	// this is used to trigger re-predictions
-	private long instancesPassed;
+	private long arrivalTick;
 
 	public InstanceInProgress(Example<Instance> example) {
+		this(example, false);
+	}
+
+	// used to restore an instance with the example and the predictions set afterwards
+	InstanceInProgress(long instanceId, long arrivalTick, int predictionCount, int repredictionCount) {
+		this.instanceId = instanceId;
+		this.arrivalTick = arrivalTick;
+		this.predictionCount = predictionCount;
+		this.repredictionCount = repredictionCount;
+	}
+
+	void setExample(Example<Instance> example) {
+		this.example = example;
+	}
+
+	void setPredictionHistory(PredictionHistory predictions) {
+		this.predictions = predictions;
+	}
+
+	void setBinAccumulator(BinnedPredictionAccumulator binAccumulator) {
+		this.binAccumulator = binAccumulator;
+	}
+
+	// winningClassOnly - keep only the winning class of every prediction, which is sufficient
+	// for the evaluators considering predicted class only
+	public InstanceInProgress(Example<Instance> example, boolean winningClassOnly) {
 		this.example = example;
-		this.instancesPassed = 0;
+		this.instanceId = (long) example.getData().instanceId();
+		this.arrivalTick = 0;
+		this.predictions = new PredictionHistory(winningClassOnly);
+	}
+
+	// predictions are mapped to bins as they are made, with bin boundaries based on the time stamp
+	// the true label is expected at rather than the time stamp of its arrival
+	public InstanceInProgress(Example<Instance> example, long expectedLabelTimeStamp,
+			BinnedPerformanceEvaluator<Example<Instance>>[] binEvaluators) {
+		this.example = example;
+		this.instanceId = (long) example.getData().instanceId();
+		this.arrivalTick = 0;
+		this.binAccumulator = new BinnedPredictionAccumulator(expectedLabelTimeStamp, binEvaluators);
+	}
+
+	public long getArrivalTick() {
+		return arrivalTick;
 	}
 
-	public void incrementInstancesPassed() {
-		instancesPassed++;
+	public void setArrivalTick(long arrivalTick) {
+		this.arrivalTick = arrivalTick;
 	}
 
 	// get the index of one of intermediate bins corresponding to the time of the prediction
@@ -77,6 +275,16 @@ public class InstanceInProgress {
 		return getPeriodicBinIndexForTime(firstTimeStamp,lastTimeStamp,predictionTimeStamp,binCount);
 	}
 
+	// get the index of one of intermediate bins corresponding to the time of index-th prediction
+	private int getPeriodicBinIndexForTime(long firstTimeStamp,long lastTimeStamp,int predictionIndex,int binCount)
+	{
+		if (predictions.getPredictionType(predictionIndex)==PredictionItem.PredictionType.FIRST_PREDICTION)
+			return 0;
+		if (predictions.getPredictionType(predictionIndex)==PredictionItem.PredictionType.FINAL_PREDICTION)
+			return binCount+1;
+		return getPeriodicBinIndexForTime(firstTimeStamp,lastTimeStamp,predictions.getPredictionTimeStamp(predictionIndex),binCount);
+	}
+
 	public int getPeriodicBinIndexForTime(long firstTimeStamp,long lastTimeStamp,long predictionTimeStamp,int binCount)
 	{
 		int bin=1 + (int) Math.floor(((1.0 * predictionTimeStamp - firstTimeStamp)
@@ -91,33 +299,42 @@ public class InstanceInProgress {
 	}
 
 	public void mapPredictionsToBins(BinnedPerformanceEvaluator<Example<Instance>>[] binEvaluators) {
+		mapPredictionsToBins(binEvaluators, new VotesBuffer());
+	}
+
+	// votesBuffer - arrays reused to pass the votes of the predictions to bin evaluators
+	public void mapPredictionsToBins(BinnedPerformanceEvaluator<Example<Instance>>[] binEvaluators, VotesBuffer votesBuffer) {
+		if (binAccumulator != null) {
+			binAccumulator.mapPredictionsToBins(this.getExample());
+			return;
+		}
 		
 		int predictionCount = predictions.size();
 		int binCount = binEvaluators.length - 2;
 		int lastBinProcessed = 0;
 
-		long firstTimeStamp = predictions.get(0).getPredictionTimeStamp();
-		long lastTimeStamp = predictions.get(predictionCount - 1).getPredictionTimeStamp();
+		long firstTimeStamp = predictions.getPredictionTimeStamp(0);
+		long lastTimeStamp = predictions.getPredictionTimeStamp(predictionCount - 1);
 
-		int previousBinIndex=-1,currentBinIndex=-1;
+		int currentBinIndex=-1;
 
 		for (int i = 0; i < predictionCount; i++) {
-			switch (predictions.get(i).predictionType) {
+			switch (predictions.getPredictionType(i)) {
 			// first time prediction
 			case FIRST_PREDICTION:
-				predictions.get(i).setBinIndex(0);
-				binEvaluators[0].addResult(this.getExample(), predictions.get(i).getClassVotes());
+				binEvaluators[0].addResult(this.getExample(), predictions.getClassVotes(i, votesBuffer));
 				break;
 
 				// prediction made in test-then-train mode i.e. right before
 				// receivng true label
 			case FINAL_PREDICTION:
-				predictions.get(i).setBinIndex(binCount + 1);
-				binEvaluators[binCount + 1].addResult(this.getExample(), predictions.get(i).getClassVotes());
+				binEvaluators[binCount + 1].addResult(this.getExample(), predictions.getClassVotes(i, votesBuffer));
 
 				// add potentially missing predictions for preceding bins
-				for (int bin = lastBinProcessed + 1; bin <= binCount; bin++) {
-					binEvaluators[bin].addClonedResult(this.getExample(), predictions.get(i - 1).getClassVotes());
+				if (lastBinProcessed < binCount) {
+					double[] previousVotes = predictions.getClassVotes(i - 1, votesBuffer);
+					binEvaluators[lastBinProcessed + 1].addClonedResults(binEvaluators, lastBinProcessed + 1, binCount,
+							this.getExample(), previousVotes);
 				}
 
 				break;
@@ -126,52 +343,50 @@ public class InstanceInProgress {
 			case REPREDICTION:
 
 				boolean aggregatePredictionsMerged=false;
-				currentBinIndex=getPeriodicBinIndexForTime(firstTimeStamp,lastTimeStamp,predictions.get(i),binCount);
-				predictions.get(i).setBinIndex(currentBinIndex);
+				currentBinIndex=getPeriodicBinIndexForTime(firstTimeStamp,lastTimeStamp,i,binCount);
 
-				for (int bin = lastBinProcessed + 1; bin < predictions.get(i).getBinIndex(); bin++) {
-					binEvaluators[bin].addClonedResult(this.getExample(), predictions.get(i - 1).getClassVotes());
+				if (lastBinProcessed + 1 < currentBinIndex) {
+					double[] previousVotes = predictions.getClassVotes(i - 1, votesBuffer);
+					binEvaluators[lastBinProcessed + 1].addClonedResults(binEvaluators, lastBinProcessed + 1,
+							currentBinIndex - 1, this.getExample(), previousVotes);
 				}
 
-				lastBinProcessed = predictions.get(i).getBinIndex();
+				lastBinProcessed = currentBinIndex;
 
 				
-				if ((i<predictionCount-1) && (predictions.get(i+1).predictionType==PredictionItem.PredictionType.REPREDICTION))
+				if ((i<predictionCount-1) && (predictions.getPredictionType(i+1)==PredictionItem.PredictionType.REPREDICTION))
 				{
 					// next prediction comes from the same bin, so we need to aggregate two or more of them
-					if (currentBinIndex==getPeriodicBinIndexForTime(firstTimeStamp,lastTimeStamp,predictions.get(i+1),binCount))
+					if (currentBinIndex==getPeriodicBinIndexForTime(firstTimeStamp,lastTimeStamp,i+1,binCount))
 					{
 						long binStartTimeStamp=(long) Math.floor(((currentBinIndex-1)/((double) binCount))*(lastTimeStamp-firstTimeStamp)+firstTimeStamp);
 						long binEndTimeStamp=(long)  Math.floor(((currentBinIndex)/((double) binCount))*(lastTimeStamp-firstTimeStamp)+firstTimeStamp);
 						int currentPredictionIndex=i;
 						int nextBinIndex;
 
-						ArrayList <PredictionItem> predictionsToMerge = new ArrayList<PredictionItem>();
-
-						// insert prediction from previous bin as the first one
-						// to be used at the beginning of the period
-						predictionsToMerge.add(new PredictionItem(
-								predictions.get(i-1).getClassVotes(),
-								binStartTimeStamp,
-								PredictionItem.PredictionType.REPREDICTION));
+						// predictions are folded into aggregated votes one by one, each weighted with the time it remained valid for
+						BinnedPerformanceEvaluator<Example<Instance>> binEvaluator = binEvaluators[currentBinIndex];
+						double[] aggregatedVotes = binEvaluator.startAggregateDecision(this.getExample());
 
-						currentPredictionIndex=i;
+						// prediction from previous bin is used at the beginning of the period
+						aggregatedVotes = binEvaluator.addToAggregateDecision(aggregatedVotes,
+								predictions.getClassVotes(i-1, votesBuffer),
+								predictions.getPredictionTimeStamp(i) - binStartTimeStamp);
 						do
 						{
-							predictionsToMerge.add(new PredictionItem(
-									predictions.get(currentPredictionIndex).getClassVotes(),
-									predictions.get(currentPredictionIndex).getPredictionTimeStamp(),
-									PredictionItem.PredictionType.REPREDICTION));
 							currentPredictionIndex++;
-							nextBinIndex=getPeriodicBinIndexForTime(firstTimeStamp,lastTimeStamp,predictions.get(currentPredictionIndex),binCount);
+							nextBinIndex=getPeriodicBinIndexForTime(firstTimeStamp,lastTimeStamp,currentPredictionIndex,binCount);
+							// the last prediction made in this bin remains valid until the end of the bin
+							long periodEndTimeStamp = (currentBinIndex==nextBinIndex) ?
+									predictions.getPredictionTimeStamp(currentPredictionIndex) : binEndTimeStamp;
+							aggregatedVotes = binEvaluator.addToAggregateDecision(aggregatedVotes,
+									predictions.getClassVotes(currentPredictionIndex-1, votesBuffer),
+									periodEndTimeStamp - predictions.getPredictionTimeStamp(currentPredictionIndex-1));
 
 						}while(currentBinIndex==nextBinIndex);
-						predictionsToMerge.add(new PredictionItem(
-								predictions.get(currentPredictionIndex-1).getClassVotes(),
-								binEndTimeStamp,
-								PredictionItem.PredictionType.REPREDICTION));
 						// now, let us use evaluator to (if requested to do so) aggregate possibly many predictions made for one instance
-						binEvaluators[lastBinProcessed].addMultipleResultsForInstance(this.getExample(), predictionsToMerge);
+						binEvaluator.addAggregatedResultForInstance(this.getExample(), aggregatedVotes,
+								binEndTimeStamp - binStartTimeStamp);
 						i=currentPredictionIndex-1;
 						aggregatePredictionsMerged=true;
 					}
@@ -179,7 +394,7 @@ public class InstanceInProgress {
 				// this happens when we found just one prediction for this bean 
 				if (!aggregatePredictionsMerged)
 				{			
-					binEvaluators[lastBinProcessed].addResult(this.getExample(), predictions.get(i).getClassVotes());
+					binEvaluators[lastBinProcessed].addResult(this.getExample(), predictions.getClassVotes(i, votesBuffer));
 				}
 	
 			}
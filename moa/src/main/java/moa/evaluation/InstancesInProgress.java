@@ -15,40 +15,239 @@
  *
  *    You should have received a copy of the GNU General Public License
  *    along with this program. If not, see <http://www.gnu.org/licenses/>.
- *    
+ *
  */
 package moa.evaluation;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import moa.core.InstanceExample;
 
 /**
  * Class that represents a memory buffer i.e. a list of instances waiting for their true labels
- * in delayed labelling setting
+ * in delayed labelling setting.
+ * Instances are kept in the order of their arrival and are indexed by their instance id, so that
+ * the instance matching a newly arrived true label can be found and removed in constant time.
+ * Re-predictions are scheduled against the number of labelled instances observed so far, so that
+ * only the instances due for re-prediction have to be visited when a true label arrives.
+ * The numbers of predictions and re-predictions held in the buffer are maintained as instances
+ * are added, re-predicted and removed
  * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
  */
-public class InstancesInProgress extends ArrayList<InstanceInProgress>{
+public class InstancesInProgress implements Iterable<InstanceInProgress>, Serializable {
 
 	/**
-	 * 
+	 *
 	 */
 	private static final long serialVersionUID = 2305798291051514080L;
 
+	// instances waiting for their true labels, in the order of arrival, indexed by instance id
+	private LinkedHashMap<Long, InstanceInProgress> instances = new LinkedHashMap<Long, InstanceInProgress>();
 
-	public int getRepredictionCount() {
-		int predictionCount=0;
-		// for every instance in progress
-		for (int i=0;i<this.size();i++)
-		{
-			// for every calculated (i.e. not cloned) prediction made for this instance
-			ArrayList<PredictionItem> predictions=this.get(i).getPredictions();
-			for (int j=0;j<predictions.size();j++)
-			{
-				if (predictions.get(j).getPredictionType()==PredictionItem.PredictionType.REPREDICTION)
-					predictionCount=predictionCount+1;
+	private RepredictionScheduler repredictionScheduler;
+
+	// the number of predictions of all types made for the buffered instances
+	private int predictionCount;
+
+	// the number of re-predictions made for the buffered instances
+	private int repredictionCount;
+
+	public InstancesInProgress(int predictionFrequency) {
+		this.repredictionScheduler = new RepredictionScheduler(predictionFrequency);
+	}
+
+	// add an instance awaiting its true label at the end of the buffer
+	// returns the instance previously buffered under the same id, if any
+	public InstanceInProgress add(InstanceInProgress instanceInProgress) {
+		repredictionScheduler.schedule(instanceInProgress);
+		predictionCount += instanceInProgress.getPredictionCount();
+		repredictionCount += instanceInProgress.getRepredictionCount();
+		InstanceInProgress previousInstance = instances.put(getInstanceId(instanceInProgress), instanceInProgress);
+		if (previousInstance != null) {
+			removePredictions(previousInstance);
+		}
+		return previousInstance;
+	}
+
+	// add a prediction made for a buffered instance
+	public void addPrediction(InstanceInProgress instanceInProgress, PredictionItem predictionItem) {
+		addPrediction(instanceInProgress, predictionItem.getClassVotes(), predictionItem.getPredictionTimeStamp(),
+				predictionItem.getPredictionType());
+	}
+
+	public void addPrediction(InstanceInProgress instanceInProgress, double[] classVotes, long predictionTimeStamp,
+			PredictionItem.PredictionType predictionType) {
+		instanceInProgress.addPrediction(classVotes, predictionTimeStamp, predictionType);
+		if (isBuffered(instanceInProgress)) {
+			predictionCount++;
+			if (predictionType==PredictionItem.PredictionType.REPREDICTION)
+				repredictionCount++;
+		}
+	}
+
+	// get the instance with the given id or null if no such instance awaits its label
+	public InstanceInProgress get(long instanceId) {
+		return instances.get(instanceId);
+	}
+
+	// remove the instance with the given id from the buffer
+	// returns the removed instance or null if no such instance awaits its label
+	public InstanceInProgress remove(long instanceId) {
+		InstanceInProgress instanceInProgress = instances.remove(instanceId);
+		if (instanceInProgress != null) {
+			removePredictions(instanceInProgress);
+		}
+		return instanceInProgress;
+	}
+
+	private void removePredictions(InstanceInProgress instanceInProgress) {
+		predictionCount -= instanceInProgress.getPredictionCount();
+		repredictionCount -= instanceInProgress.getRepredictionCount();
+	}
+
+	public boolean contains(long instanceId) {
+		return instances.containsKey(instanceId);
+	}
+
+	// check if this very instance still awaits its true label
+	public boolean isBuffered(InstanceInProgress instanceInProgress) {
+		return instances.get(getInstanceId(instanceInProgress)) == instanceInProgress;
+	}
+
+	// register the arrival of a labelled instance and get the buffered instances due for re-prediction,
+	// in the order of their arrival
+	public ArrayList<InstanceInProgress> nextLabelledInstance() {
+		return repredictionScheduler.advance(this);
+	}
+
+	public int size() {
+		return instances.size();
+	}
+
+	public boolean isEmpty() {
+		return instances.isEmpty();
+	}
+
+	public void clear() {
+		instances.clear();
+		repredictionScheduler.clear();
+		predictionCount = 0;
+		repredictionCount = 0;
+	}
+
+	// iterate over buffered instances in the order of their arrival
+	@Override
+	public Iterator<InstanceInProgress> iterator() {
+		return instances.values().iterator();
+	}
+
+	public static long getInstanceId(InstanceInProgress instanceInProgress) {
+		return instanceInProgress.getInstanceId();
+	}
+
+	// write the state of the buffer, i.e. the buffered instances in the order of their arrival and the number
+	// of labelled instances observed so far. Dense examples and prediction histories are written in a compact
+	// binary form, other examples and predictions mapped to bins are serialized, so that they refer
+	// to the bin evaluators written to the same stream
+	public void writeTo(ObjectOutputStream out) throws IOException {
+		out.writeLong(repredictionScheduler.getLabelledInstanceCount());
+		out.writeInt(size());
+		ByteBuffer buffer = ByteBuffer.allocate(0);
+		for (InstanceInProgress instanceInProgress : this) {
+			out.writeLong(instanceInProgress.getInstanceId());
+			out.writeLong(instanceInProgress.getArrivalTick());
+			out.writeInt(instanceInProgress.getPredictionCount());
+			out.writeInt(instanceInProgress.getRepredictionCount());
+			boolean compactExample = instanceInProgress.hasCompactExample();
+			PredictionHistory predictions = instanceInProgress.getPredictionHistory();
+			out.writeBoolean(compactExample);
+			out.writeBoolean(predictions != null);
+			out.writeObject(compactExample ? instanceInProgress.getInstance().dataset() : instanceInProgress.getInstance());
+			if (predictions == null) {
+				out.writeObject(instanceInProgress.getBinAccumulator());
+			}
+
+			int recordSize = (compactExample ? instanceInProgress.getCompactExampleSize() : 0)
+					+ (predictions != null ? predictions.getRecordSize() : 0);
+			if (buffer.capacity() < recordSize) {
+				buffer = ByteBuffer.allocate(Math.max(recordSize, 2 * buffer.capacity()));
+			}
+			buffer.clear();
+			if (compactExample) {
+				instanceInProgress.writeCompactExample(buffer);
 			}
+			if (predictions != null) {
+				predictions.writeTo(buffer);
+			}
+			out.writeInt(recordSize);
+			out.write(buffer.array(), 0, recordSize);
 		}
+	}
+
+	// restore the state written by writeTo into an empty buffer
+	public void readFrom(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		repredictionScheduler.setLabelledInstanceCount(in.readLong());
+		int size = in.readInt();
+		ByteBuffer buffer = ByteBuffer.allocate(0);
+		for (int i = 0; i < size; i++) {
+			InstanceInProgress instanceInProgress = new InstanceInProgress(in.readLong(), in.readLong(), in.readInt(),
+					in.readInt());
+			boolean compactExample = in.readBoolean();
+			boolean predictionHistory = in.readBoolean();
+			Object instanceOrDataset = in.readObject();
+			if (!predictionHistory) {
+				instanceInProgress.setBinAccumulator((BinnedPredictionAccumulator) in.readObject());
+			}
+
+			int recordSize = in.readInt();
+			if (buffer.capacity() < recordSize) {
+				buffer = ByteBuffer.allocate(Math.max(recordSize, 2 * buffer.capacity()));
+			}
+			buffer.clear();
+			in.readFully(buffer.array(), 0, recordSize);
+			if (compactExample) {
+				instanceInProgress.readCompactExample(buffer, (Instances) instanceOrDataset);
+			} else {
+				instanceInProgress.setExample(new InstanceExample((Instance) instanceOrDataset));
+			}
+			if (predictionHistory) {
+				instanceInProgress.setPredictionHistory(PredictionHistory.readFrom(buffer));
+			}
+			addRestored(instanceInProgress);
+		}
+	}
+
+	// add an instance restored by readFrom, with its arrival tick and predictions already set
+	protected void addRestored(InstanceInProgress instanceInProgress) {
+		instances.put(getInstanceId(instanceInProgress), instanceInProgress);
+		repredictionScheduler.reschedule(instanceInProgress);
+		predictionCount += instanceInProgress.getPredictionCount();
+		repredictionCount += instanceInProgress.getRepredictionCount();
+	}
+
+	// release the resources held by the buffer, once it is no longer used
+	public void close() {
+	}
+
+	// the number of re-predictions (i.e. calculated, not cloned predictions made while waiting for true labels)
+	// currently held in the buffer
+	public int getRepredictionCount() {
+		return repredictionCount;
+	}
+
+	// the number of predictions of all types currently held in the buffer
+	public int getPredictionCount() {
 		return predictionCount;
 	}
-	
-	
+
 }
@@ -19,16 +19,24 @@
  */
 package moa.evaluation;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import moa.AbstractMOAObject;
-import moa.core.DoubleVector;
 import moa.core.Measurement;
 import moa.core.StringUtils;
 
 /**
  * Class that stores and keeps the history of evaluation measurements.
+ * Measurement names are indexed with a hash map and the values are kept in one
+ * column per measurement. Entries are expected in the order of the ordering
+ * measurement and appended, other entries are inserted at their position.
  *
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  * @version $Revision: 7 $
@@ -37,12 +45,26 @@ public class LearningCurve extends AbstractMOAObject {
 
     private static final long serialVersionUID = 1L;
 
+    private static final int INITIAL_CAPACITY = 16;
+
     protected List<String> measurementNames = new ArrayList<String>();
 
-    protected List<double[]> measurementValues = new ArrayList<double[]>();
+    // the index of every measurement name in measurementNames
+    protected Map<String, Integer> measurementIndices = new HashMap<String, Integer>();
+
+    // the values of every measurement for all entries, one column per measurement name,
+    // the measurements with indices not smaller than the length of an entry are missing from it i.e. NaN
+    protected List<double[]> measurementColumns = new ArrayList<double[]>();
+
+    protected int[] entryLengths = new int[INITIAL_CAPACITY];
+
+    protected int numEntries;
+
+    // the indices of the measurements of the entry being inserted
+    private transient int[] entryIndices;
 
     public LearningCurve(String orderingMeasurementName) {
-        this.measurementNames.add(orderingMeasurementName);
+        addMeasurementName(orderingMeasurementName);
     }
 
     public String getOrderingMeasurementName() {
@@ -51,38 +73,89 @@ public class LearningCurve extends AbstractMOAObject {
 
     public void insertEntry(LearningEvaluation learningEvaluation) {
         Measurement[] measurements = learningEvaluation.getMeasurements();
+        // the ordering measurement usually comes first
         Measurement orderMeasurement = Measurement.getMeasurementNamed(
                 getOrderingMeasurementName(), measurements);
         if (orderMeasurement == null) {
             throw new IllegalArgumentException();
         }
-        DoubleVector entryVals = new DoubleVector();
-        for (Measurement measurement : measurements) {
-            entryVals.setValue(addMeasurementName(measurement.getName()),
-                    measurement.getValue());
+        if (this.entryIndices == null || this.entryIndices.length < measurements.length) {
+            this.entryIndices = new int[measurements.length];
+        }
+        int entryLength = 0;
+        for (int i = 0; i < measurements.length; i++) {
+            int index = addMeasurementName(measurements[i].getName());
+            this.entryIndices[i] = index;
+            entryLength = Math.max(entryLength, index + 1);
         }
         double orderVal = orderMeasurement.getValue();
-        int index = 0;
-        while ((index < this.measurementValues.size())
-                && (orderVal > this.measurementValues.get(index)[0])) {
-            index++;
+        int entryIndex = this.numEntries;
+        // entries usually come in the order of ordering measurement, otherwise the position is searched for
+        if ((this.numEntries > 0) && !(orderVal > this.measurementColumns.get(0)[this.numEntries - 1])) {
+            entryIndex = 0;
+            while ((entryIndex < this.numEntries)
+                    && (orderVal > this.measurementColumns.get(0)[entryIndex])) {
+                entryIndex++;
+            }
+        }
+        insertEntry(entryIndex, entryLength);
+        for (int i = 0; i < measurements.length; i++) {
+            this.measurementColumns.get(this.entryIndices[i])[entryIndex] = measurements[i].getValue();
         }
-        this.measurementValues.add(index, entryVals.getArrayRef());
+    }
+
+    // make room for an entry with values of the given number of measurements, initially zeros
+    // as in a vector of values of the given length
+    private void insertEntry(int entryIndex, int entryLength) {
+        int capacity = this.entryLengths.length;
+        if (this.numEntries == capacity) {
+            capacity = 2 * capacity;
+            this.entryLengths = Arrays.copyOf(this.entryLengths, capacity);
+            for (int i = 0; i < this.measurementColumns.size(); i++) {
+                this.measurementColumns.set(i, Arrays.copyOf(this.measurementColumns.get(i), capacity));
+            }
+        }
+        if (entryIndex < this.numEntries) {
+            int numMoved = this.numEntries - entryIndex;
+            System.arraycopy(this.entryLengths, entryIndex, this.entryLengths, entryIndex + 1, numMoved);
+            for (double[] column : this.measurementColumns) {
+                System.arraycopy(column, entryIndex, column, entryIndex + 1, numMoved);
+            }
+        }
+        this.entryLengths[entryIndex] = entryLength;
+        for (int i = 0; i < this.measurementColumns.size(); i++) {
+            this.measurementColumns.get(i)[entryIndex] = (i < entryLength) ? 0.0 : Double.NaN;
+        }
+        this.numEntries++;
     }
 
     public int numEntries() {
-        return this.measurementValues.size();
+        return this.numEntries;
+    }
+
+    public int numMeasurements() {
+        return this.measurementNames.size();
     }
 
     protected int addMeasurementName(String name) {
-        int index = this.measurementNames.indexOf(name);
-        if (index < 0) {
+        Integer index = this.measurementIndices.get(name);
+        if (index == null) {
             index = this.measurementNames.size();
             this.measurementNames.add(name);
+            this.measurementIndices.put(name, index);
+            double[] column = new double[this.entryLengths.length];
+            Arrays.fill(column, Double.NaN);
+            this.measurementColumns.add(column);
         }
         return index;
     }
 
+    // get the index of the measurement with the given name or -1 if there is no such measurement
+    public int getMeasurementIndex(String name) {
+        Integer index = this.measurementIndices.get(name);
+        return (index == null) ? -1 : index;
+    }
+
     public String headerToString() {
         StringBuilder sb = new StringBuilder();
         boolean first = true;
@@ -99,15 +172,15 @@ public class LearningCurve extends AbstractMOAObject {
 
     public String entryToString(int entryIndex) {
         StringBuilder sb = new StringBuilder();
-        double[] vals = this.measurementValues.get(entryIndex);
         for (int i = 0; i < this.measurementNames.size(); i++) {
             if (i > 0) {
                 sb.append(',');
             }
-            if ((i >= vals.length) || Double.isNaN(vals[i])) {
+            double val = this.measurementColumns.get(i)[entryIndex];
+            if (Double.isNaN(val)) {
                 sb.append('?');
             } else {
-                sb.append(Double.toString(vals[i]));
+                sb.append(Double.toString(val));
             }
         }
         return sb.toString();
@@ -121,8 +194,63 @@ public class LearningCurve extends AbstractMOAObject {
         }
     }
 
+    /**
+     * Writes measurement names and values in a compact binary form.
+     *
+     * @param out the output to write to
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(this.measurementNames.size());
+        for (String name : this.measurementNames) {
+            out.writeUTF(name);
+        }
+        out.writeInt(this.numEntries);
+        for (int entryIndex = 0; entryIndex < this.numEntries; entryIndex++) {
+            out.writeInt(this.entryLengths[entryIndex]);
+            for (int i = 0; i < this.entryLengths[entryIndex]; i++) {
+                out.writeDouble(this.measurementColumns.get(i)[entryIndex]);
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of this curve with measurement names and values
+     * written by writeTo.
+     *
+     * @param in the input to read from
+     * @throws IOException if reading fails
+     */
+    public void readFrom(DataInput in) throws IOException {
+        this.measurementNames.clear();
+        this.measurementIndices.clear();
+        this.measurementColumns.clear();
+        this.numEntries = 0;
+        int numNames = in.readInt();
+        for (int i = 0; i < numNames; i++) {
+            addMeasurementName(in.readUTF());
+        }
+        int numEntries = in.readInt();
+        for (int entryIndex = 0; entryIndex < numEntries; entryIndex++) {
+            int entryLength = in.readInt();
+            insertEntry(entryIndex, entryLength);
+            for (int i = 0; i < entryLength; i++) {
+                this.measurementColumns.get(i)[entryIndex] = in.readDouble();
+            }
+        }
+    }
+
     public double getMeasurement(int entryIndex, int measurementIndex) {
-        return this.measurementValues.get(entryIndex)[measurementIndex];
+        if (entryIndex >= this.numEntries) {
+            throw new IndexOutOfBoundsException("Entry: " + entryIndex + ", entries: " + this.numEntries);
+        }
+        return this.measurementColumns.get(measurementIndex)[entryIndex];
+    }
+
+    // get the values of a measurement for all entries, NaN for the entries missing the measurement
+    // the array can be longer than the number of entries
+    public double[] getMeasurementColumn(int measurementIndex) {
+        return this.measurementColumns.get(measurementIndex);
     }
 
     public String getMeasurementName(int measurementIndex) {
@@ -0,0 +1,327 @@
+/*
+ *    MetricsRegistry.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class that holds named metrics of a running task: counters, gauges and latency recorders.
+ * The metrics are updated with atomic operations only, so that the loop of the task is not blocked
+ * while the metrics are read by another thread. A snapshot of all metrics, including the rates
+ * of the counters since the previous snapshot, can be written as JSON to a file periodically,
+ * the file is replaced as a whole, so that it can be read at any time
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class MetricsRegistry {
+
+	private CopyOnWriteArrayList<Counter> counters = new CopyOnWriteArrayList<Counter>();
+
+	private CopyOnWriteArrayList<Gauge> gauges = new CopyOnWriteArrayList<Gauge>();
+
+	private CopyOnWriteArrayList<LatencyRecorder> latencyRecorders = new CopyOnWriteArrayList<LatencyRecorder>();
+
+	private long creationTime = System.nanoTime();
+
+	// the time of the previous snapshot, used to calculate the rates of counters
+	private long snapshotTime = creationTime;
+
+	private ScheduledExecutorService scheduler;
+
+	private File snapshotFile;
+
+	public Counter counter(String name) {
+		Counter counter = new Counter(name);
+		counters.add(counter);
+		return counter;
+	}
+
+	public Gauge gauge(String name) {
+		Gauge gauge = new Gauge(name);
+		gauges.add(gauge);
+		return gauge;
+	}
+
+	public LatencyRecorder latencyRecorder(String name) {
+		LatencyRecorder latencyRecorder = new LatencyRecorder(name);
+		latencyRecorders.add(latencyRecorder);
+		return latencyRecorder;
+	}
+
+	// write a snapshot to the file every intervalMillis milliseconds, until close is called
+	public void startSnapshots(File file, long intervalMillis) {
+		this.snapshotFile = file;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "metrics snapshots: " + snapshotFile.getName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				// an exception would cancel all later snapshots, so a failed snapshot is reported and the next one is tried
+				try {
+					writeSnapshot(snapshotFile);
+				} catch (RuntimeException ex) {
+					System.err.println("[WARNING] " + ex.getMessage()
+							+ ((ex.getCause() != null) ? " (" + ex.getCause() + ")" : ""));
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	// stop periodic snapshots and write the final snapshot
+	public void close() {
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		scheduler = null;
+		writeSnapshot(snapshotFile);
+	}
+
+	// write the snapshot to a temporary file renamed once it is complete
+	public synchronized void writeSnapshot(File file) {
+		File tempFile = new File(file.getPath() + ".tmp");
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8);
+			try {
+				writer.write(toJson());
+			} finally {
+				writer.close();
+			}
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to write metrics file: " + file, ex);
+		}
+	}
+
+	// get a snapshot of all metrics as JSON, the rates of counters are calculated since the previous snapshot
+	public synchronized String toJson() {
+		long time = System.nanoTime();
+		double interval = (time - snapshotTime) / 1e9;
+		snapshotTime = time;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n  \"timestamp\": ").append(System.currentTimeMillis());
+		sb.append(",\n  \"uptimeSeconds\": ").append(toJson((time - creationTime) / 1e9));
+		sb.append(",\n  \"counters\": {");
+		for (int i = 0; i < counters.size(); i++) {
+			Counter counter = counters.get(i);
+			long count = counter.get();
+			sb.append((i > 0) ? ",\n    \"" : "\n    \"").append(counter.name).append("\": {\"count\": ").append(count);
+			sb.append(", \"ratePerSecond\": ").append(toJson((count - counter.snapshotCount) / interval)).append('}');
+			counter.snapshotCount = count;
+		}
+		sb.append("\n  },\n  \"gauges\": {");
+		for (int i = 0; i < gauges.size(); i++) {
+			Gauge gauge = gauges.get(i);
+			sb.append((i > 0) ? ",\n    \"" : "\n    \"").append(gauge.name).append("\": ").append(toJson(gauge.get()));
+		}
+		sb.append("\n  },\n  \"latenciesNanos\": {");
+		for (int i = 0; i < latencyRecorders.size(); i++) {
+			LatencyRecorder recorder = latencyRecorders.get(i);
+			sb.append((i > 0) ? ",\n    \"" : "\n    \"").append(recorder.name).append("\": {");
+			sb.append("\"count\": ").append(recorder.getCount());
+			sb.append(", \"mean\": ").append(toJson(recorder.getMean()));
+			sb.append(", \"p50\": ").append(recorder.getPercentile(50));
+			sb.append(", \"p90\": ").append(recorder.getPercentile(90));
+			sb.append(", \"p99\": ").append(recorder.getPercentile(99));
+			sb.append(", \"max\": ").append(recorder.getMax()).append('}');
+		}
+		sb.append("\n  }\n}\n");
+		return sb.toString();
+	}
+
+	private static String toJson(double value) {
+		return (Double.isNaN(value) || Double.isInfinite(value)) ? "null" : Double.toString(value);
+	}
+
+	public static class Counter {
+
+		private final String name;
+
+		private final AtomicLong count = new AtomicLong();
+
+		// the count at the previous snapshot, accessed by the snapshot thread only
+		private long snapshotCount;
+
+		private Counter(String name) {
+			this.name = name;
+		}
+
+		public void increment() {
+			count.incrementAndGet();
+		}
+
+		public void add(long delta) {
+			count.addAndGet(delta);
+		}
+
+		public long get() {
+			return count.get();
+		}
+	}
+
+	public static class Gauge {
+
+		private final String name;
+
+		private final AtomicLong valueBits = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+
+		private Gauge(String name) {
+			this.name = name;
+		}
+
+		public void set(double value) {
+			valueBits.lazySet(Double.doubleToRawLongBits(value));
+		}
+
+		public double get() {
+			return Double.longBitsToDouble(valueBits.get());
+		}
+	}
+
+	/**
+	 * Histogram of latencies in nanoseconds with buckets of exponentially growing width,
+	 * i.e. every power of two is split into SUB_BUCKETS buckets, so that percentiles are exact
+	 * up to 1/SUB_BUCKETS of the value for any value recorded
+	 */
+	public static class LatencyRecorder {
+
+		private static final int SUB_BUCKET_BITS = 5;
+
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+		private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+
+		private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+
+		private final String name;
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicLong sum = new AtomicLong();
+
+		private final AtomicLong max = new AtomicLong();
+
+		private LatencyRecorder(String name) {
+			this.name = name;
+		}
+
+		// record the time elapsed since the given System.nanoTime()
+		public void recordSince(long startNanos) {
+			record(System.nanoTime() - startNanos);
+		}
+
+		public void record(long nanos) {
+			if (nanos < 0) {
+				nanos = 0;
+			}
+			counts.incrementAndGet(getBucket(nanos));
+			count.incrementAndGet();
+			sum.addAndGet(nanos);
+			long currentMax = max.get();
+			while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+				currentMax = max.get();
+			}
+		}
+
+		// values below SUB_BUCKETS have their own buckets, larger values are shifted, so that
+		// their SUB_BUCKET_BITS most significant bits select one of HALF_SUB_BUCKETS buckets of the shift
+		private static int getBucket(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+			return (shift + 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+		}
+
+		// the middle of the range of values of the bucket
+		private static long getBucketValue(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+			int shift = bucket / HALF_SUB_BUCKETS - 1;
+			long mantissa = bucket - shift * HALF_SUB_BUCKETS;
+			return (mantissa << shift) + ((1L << shift) >> 1);
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public double getMean() {
+			long n = count.get();
+			return (n == 0) ? Double.NaN : (double) sum.get() / n;
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		// get the latency not exceeded by the given percentage of recorded latencies
+		public long getPercentile(double percentile) {
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				total += counts.get(i);
+			}
+			long rank = (long) Math.ceil(total * percentile / 100.0);
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				cumulative += counts.get(i);
+				if (cumulative >= rank && cumulative > 0) {
+					return Math.min(getBucketValue(i), getMax());
+				}
+			}
+			return 0;
+		}
+	}
+
+}
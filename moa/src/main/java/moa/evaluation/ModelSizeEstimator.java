@@ -0,0 +1,82 @@
+/*
+ *    ModelSizeEstimator.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import moa.MOAObject;
+
+/**
+ * Class that estimates the memory size of a model used to calculate RAM-Hours without measuring
+ * the whole model graph at every sample. The model is measured exactly once every checkFrequency instances,
+ * between the measurements its size is extrapolated linearly from the growth of the model per instance
+ * observed between the last two measurements. With checkFrequency not exceeding the sample frequency
+ * every sample is measured exactly
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class ModelSizeEstimator {
+
+	private int checkFrequency;
+
+	// the number of instances processed at the last exact measurement, -1 if the model was not measured yet
+	private long measuredInstances = -1;
+
+	private long measuredByteSize;
+
+	// the change of the size of the model per instance between the last two exact measurements
+	private double growthPerInstance;
+
+	// checkFrequency - the number of instances between exact measurements, 0 to measure at every call
+	public ModelSizeEstimator(int checkFrequency) {
+		this.checkFrequency = checkFrequency;
+	}
+
+	// get the size of the model in bytes after the given number of instances,
+	// exact - measure the model regardless of the number of instances since the last measurement
+	public long getByteSize(MOAObject model, long instancesProcessed, boolean exact) {
+		if (exact || this.measuredInstances < 0 || instancesProcessed - this.measuredInstances >= this.checkFrequency) {
+			long byteSize = model.measureByteSize();
+			if (this.measuredInstances >= 0 && instancesProcessed > this.measuredInstances) {
+				this.growthPerInstance = (double) (byteSize - this.measuredByteSize)
+						/ (instancesProcessed - this.measuredInstances);
+			}
+			this.measuredInstances = instancesProcessed;
+			this.measuredByteSize = byteSize;
+			return byteSize;
+		}
+		double estimate = this.measuredByteSize + this.growthPerInstance * (instancesProcessed - this.measuredInstances);
+		return Math.max(0, Math.round(estimate));
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeLong(this.measuredInstances);
+		out.writeLong(this.measuredByteSize);
+		out.writeDouble(this.growthPerInstance);
+	}
+
+	public void readFrom(DataInput in) throws IOException {
+		this.measuredInstances = in.readLong();
+		this.measuredByteSize = in.readLong();
+		this.growthPerInstance = in.readDouble();
+	}
+
+}
@@ -0,0 +1,515 @@
+/*
+ *    MultiBinClassificationPerformanceEvaluator.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.core.Example;
+import moa.core.Utils;
+
+/**
+ * Class that evaluates all bins of delayed labelling evaluation in one object, as a replacement for
+ * a copy of BasicClassificationPerformanceEvaluator or WindowClassificationPerformanceEvaluator per bin.
+ * Every bin receives exactly one result for every labelled instance, so the statistics depending on true labels only,
+ * i.e. class distribution, no change and majority class classifiers, are identical for all bins and are updated once
+ * per instance. The statistics depending on predictions are kept in primitive [bin][class] arrays.
+ * For a sliding window, the true classes and weights are kept in one ring shared by all bins, while every bin keeps
+ * only the predicted classes of the records. Bins are exposed as evaluators reporting the same measurements as the copies.
+ * A result cloned to a range of bins is added at once. While all weights are 1, the statistics of a range of bins calculated
+ * since the beginning of evaluation are updated with difference arrays of counts, added to the statistics of every bin
+ * only when the measurements are read
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class MultiBinClassificationPerformanceEvaluator implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final byte NO_CHANGE_CORRECT = 1;
+
+	private static final byte MAJORITY_CORRECT = 2;
+
+	private Bin[] bins;
+
+	private int binCount;
+
+	// the width of sliding window, 0 for statistics calculated since the beginning of evaluation
+	private int width;
+
+	private int numClasses;
+
+	// the number of results received by all bins for the last labelled instance and the instance itself,
+	// used to update the statistics shared by all bins once per instance
+	private int instanceResultCount;
+
+	private transient Example<Instance> currentExample;
+
+	private double totalWeightObserved;
+
+	private int lastSeenClass;
+
+	// statistics depending on true labels only, shared by all bins
+	private long length;
+
+	private double[] trueSums;
+
+	private long[] trueCounts;
+
+	private long baselineLength;
+
+	private double noChangeSum;
+
+	private double majoritySum;
+
+	// the window of true classes and weights of classifications of positive weight
+	private int[] trueClasses;
+
+	private double[] weights;
+
+	private int position;
+
+	// the record of the window replaced by the last labelled instance of positive weight
+	private int currentSlot;
+
+	private boolean recordForgotten;
+
+	private int forgottenTrueClass;
+
+	private double forgottenWeight;
+
+	// the window of results of no change and majority class classifiers
+	private double[] baselineWeights;
+
+	private byte[] baselineResults;
+
+	private int baselinePosition;
+
+	// statistics depending on predictions, per bin and per [bin][class]
+	private double[] totalPredictionCounts;
+
+	private double[] correctSums;
+
+	private double[] predictedSums;
+
+	private double[] correctClassSums;
+
+	private long[] predictedCounts;
+
+	// the window of predicted classes, per [bin][record]
+	private int[] predictedClasses;
+
+	// true as long as all results of positive weight had weight 1, so that all sums are integer counts
+	private boolean unitWeights;
+
+	// the counts of results cloned to ranges of bins, not yet added to the statistics of every bin,
+	// kept as the differences between the counts of consecutive bins, per bin and per [bin][class]
+	private boolean pendingResults;
+
+	private long[] pendingCorrectCounts;
+
+	private long[] pendingPredictedCounts;
+
+	private long[] pendingCorrectClassCounts;
+
+	// evaluator - the evaluator providing the options of all bins, its class has to be supported
+	public MultiBinClassificationPerformanceEvaluator(BasicClassificationPerformanceEvaluator evaluator, int binCount) {
+		if (!isSupported(evaluator)) {
+			throw new IllegalArgumentException("Bins cannot share the evaluator: " + evaluator.getClass().getName());
+		}
+		this.binCount = binCount;
+		if (evaluator instanceof WindowClassificationPerformanceEvaluator) {
+			this.width = ((WindowClassificationPerformanceEvaluator) evaluator).widthOption.getValue();
+		}
+		this.bins = new Bin[binCount];
+		for (int i = 0; i < binCount; i++) {
+			bins[i] = new Bin(i);
+			bins[i].precisionRecallOutputOption.setValue(evaluator.precisionRecallOutputOption.isSet());
+			bins[i].precisionPerClassOption.setValue(evaluator.precisionPerClassOption.isSet());
+			bins[i].recallPerClassOption.setValue(evaluator.recallPerClassOption.isSet());
+			bins[i].f1PerClassOption.setValue(evaluator.f1PerClassOption.isSet());
+			bins[i].reportExtendedEvaluationOption.setValue(evaluator.reportExtendedEvaluationOption.isSet());
+			bins[i].aggregateMultiplePredictionsPerBinOption
+					.setValue(evaluator.aggregateMultiplePredictionsPerBinOption.isSet());
+		}
+		reset(evaluator.getNumClasses());
+	}
+
+	// bins can share the evaluators with estimators calculating averages only i.e. basic and window evaluators,
+	// other evaluators have to be copied for every bin
+	public static boolean isSupported(LearningPerformanceEvaluator<?> evaluator) {
+		return evaluator.getClass() == BasicClassificationPerformanceEvaluator.class
+				|| evaluator.getClass() == WindowClassificationPerformanceEvaluator.class;
+	}
+
+	public int getBinCount() {
+		return binCount;
+	}
+
+	// get the evaluator of one bin
+	public BinnedPerformanceEvaluator<Example<Instance>> getBin(int binIndex) {
+		return bins[binIndex];
+	}
+
+	// reset the statistics of all bins, as done by an evaluator of every bin at its first result of positive weight
+	public void reset(int numClasses) {
+		this.numClasses = numClasses;
+		for (Bin bin : bins) {
+			bin.resetBin(numClasses);
+		}
+		instanceResultCount = 0;
+		currentExample = null;
+		totalWeightObserved = 0;
+		lastSeenClass = 0;
+		length = 0;
+		trueSums = new double[numClasses];
+		trueCounts = new long[numClasses];
+		baselineLength = 0;
+		noChangeSum = 0;
+		majoritySum = 0;
+		if (width > 0) {
+			trueClasses = new int[width];
+			weights = new double[width];
+			position = 0;
+			baselineWeights = new double[width];
+			baselineResults = new byte[width];
+			baselinePosition = 0;
+			predictedClasses = new int[binCount * width];
+		}
+		totalPredictionCounts = new double[binCount];
+		correctSums = new double[binCount];
+		predictedSums = new double[binCount * numClasses];
+		correctClassSums = new double[binCount * numClasses];
+		predictedCounts = new long[binCount * numClasses];
+		unitWeights = true;
+		pendingResults = false;
+		pendingCorrectCounts = new long[binCount + 1];
+		pendingPredictedCounts = new long[(binCount + 1) * numClasses];
+		pendingCorrectClassCounts = new long[(binCount + 1) * numClasses];
+	}
+
+	// add the same result to bins fromBin..toBin, cloned - true for results based on predictions made in previous bins
+	protected void addResults(int fromBin, int toBin, Example<Instance> example, double[] classVotes, boolean cloned) {
+		Instance inst = example.getData();
+		double weight = inst.weight();
+		if (inst.classIsMissing()) {
+			for (int bin = fromBin; bin <= toBin; bin++) {
+				if (weight > 0.0) {
+					totalPredictionCounts[bin]++;
+				}
+				if (cloned) {
+					totalPredictionCounts[bin]--;
+				}
+			}
+			return;
+		}
+		int trueClass = (int) inst.classValue();
+		if (instanceResultCount == 0) {
+			// the first result for this instance updates the statistics shared by all bins
+			if (weight > 0.0 && totalWeightObserved == 0) {
+				reset(inst.dataset().numClasses());
+			}
+			addLabel(trueClass, weight);
+			currentExample = example;
+		} else if (example != currentExample) {
+			throw new IllegalStateException("All bins have to receive one result for every labelled instance, "
+					+ instanceResultCount + " of " + binCount + " results received for the previous instance");
+		}
+		instanceResultCount += toBin - fromBin + 1;
+		if (instanceResultCount >= binCount) {
+			if (instanceResultCount > binCount) {
+				throw new IllegalStateException("All bins have to receive one result for every labelled instance, "
+						+ instanceResultCount + " results received for " + binCount + " bins");
+			}
+			instanceResultCount = 0;
+			currentExample = null;
+		}
+
+		int predictedClass = Utils.maxIndex(classVotes);
+		if (weight > 0.0 && cloned && width == 0 && unitWeights) {
+			// a cloned result is not counted as a prediction, so only the counts of the range are updated
+			addPendingPredictions(fromBin, toBin, predictedClass, trueClass);
+			return;
+		}
+		for (int bin = fromBin; bin <= toBin; bin++) {
+			if (weight > 0.0) {
+				totalPredictionCounts[bin]++;
+				addPrediction(bin, predictedClass, trueClass, weight);
+			}
+			if (cloned) {
+				// do not count this prediction as it did not require extra call to predictive model
+				totalPredictionCounts[bin]--;
+			}
+		}
+	}
+
+	private void addLabel(int trueClass, double weight) {
+		if (weight > 0.0) {
+			if (weight != 1.0 && unitWeights) {
+				// the sums are no longer integer counts, so they have to be updated in the order of results
+				addPendingResults();
+				unitWeights = false;
+			}
+			totalWeightObserved += weight;
+			if (width > 0) {
+				currentSlot = position;
+				recordForgotten = (length == width);
+				if (recordForgotten) {
+					forgottenTrueClass = trueClasses[currentSlot];
+					forgottenWeight = weights[currentSlot];
+					trueSums[forgottenTrueClass] -= forgottenWeight;
+					trueCounts[forgottenTrueClass]--;
+				} else {
+					length++;
+				}
+				trueClasses[currentSlot] = trueClass;
+				weights[currentSlot] = weight;
+				if (++position == width) {
+					position = 0;
+				}
+			} else {
+				length++;
+			}
+			trueSums[trueClass] += weight;
+			trueCounts[trueClass]++;
+		}
+		addBaselineResult(lastSeenClass == trueClass, getMajorityClass() == trueClass, weight);
+		lastSeenClass = trueClass;
+	}
+
+	private void addBaselineResult(boolean noChangeCorrect, boolean majorityCorrect, double weight) {
+		if (width > 0) {
+			if (baselineLength == width) {
+				byte forgottenResult = baselineResults[baselinePosition];
+				if ((forgottenResult & NO_CHANGE_CORRECT) != 0) {
+					noChangeSum -= baselineWeights[baselinePosition];
+				}
+				if ((forgottenResult & MAJORITY_CORRECT) != 0) {
+					majoritySum -= baselineWeights[baselinePosition];
+				}
+			} else {
+				baselineLength++;
+			}
+			baselineResults[baselinePosition] = (byte) ((noChangeCorrect ? NO_CHANGE_CORRECT : 0)
+					| (majorityCorrect ? MAJORITY_CORRECT : 0));
+			baselineWeights[baselinePosition] = weight;
+			if (++baselinePosition == width) {
+				baselinePosition = 0;
+			}
+		} else {
+			baselineLength++;
+		}
+		if (noChangeCorrect) {
+			noChangeSum += weight;
+		}
+		if (majorityCorrect) {
+			majoritySum += weight;
+		}
+	}
+
+	// update the statistics of one bin, after the statistics shared by all bins have been updated for the instance
+	private void addPrediction(int binIndex, int predictedClass, int trueClass, double weight) {
+		int offset = binIndex * numClasses;
+		if (width > 0) {
+			int record = binIndex * width + currentSlot;
+			if (recordForgotten) {
+				int forgottenPredictedClass = predictedClasses[record];
+				if (forgottenPredictedClass == forgottenTrueClass) {
+					correctSums[binIndex] -= forgottenWeight;
+					correctClassSums[offset + forgottenTrueClass] -= forgottenWeight;
+				}
+				predictedSums[offset + forgottenPredictedClass] -= forgottenWeight;
+				predictedCounts[offset + forgottenPredictedClass]--;
+			}
+			predictedClasses[record] = predictedClass;
+		}
+		if (predictedClass == trueClass) {
+			correctSums[binIndex] += weight;
+			correctClassSums[offset + trueClass] += weight;
+		}
+		predictedSums[offset + predictedClass] += weight;
+		predictedCounts[offset + predictedClass]++;
+	}
+
+	private void addPendingPredictions(int fromBin, int toBin, int predictedClass, int trueClass) {
+		pendingPredictedCounts[fromBin * numClasses + predictedClass]++;
+		pendingPredictedCounts[(toBin + 1) * numClasses + predictedClass]--;
+		if (predictedClass == trueClass) {
+			pendingCorrectCounts[fromBin]++;
+			pendingCorrectCounts[toBin + 1]--;
+			pendingCorrectClassCounts[fromBin * numClasses + trueClass]++;
+			pendingCorrectClassCounts[(toBin + 1) * numClasses + trueClass]--;
+		}
+		pendingResults = true;
+	}
+
+	// add the counts of results cloned to ranges of bins to the statistics of every bin, the sums are integer counts
+	// so adding the counts gives the same sums as adding the results one by one
+	private void addPendingResults() {
+		if (!pendingResults) {
+			return;
+		}
+		long correctCount = 0;
+		for (int bin = 0; bin < binCount; bin++) {
+			correctCount += pendingCorrectCounts[bin];
+			correctSums[bin] += correctCount;
+		}
+		for (int classIndex = 0; classIndex < numClasses; classIndex++) {
+			long predictedCount = 0;
+			long correctClassCount = 0;
+			for (int bin = 0; bin < binCount; bin++) {
+				int index = bin * numClasses + classIndex;
+				predictedCount += pendingPredictedCounts[index];
+				correctClassCount += pendingCorrectClassCounts[index];
+				predictedSums[index] += predictedCount;
+				predictedCounts[index] += predictedCount;
+				correctClassSums[index] += correctClassCount;
+			}
+		}
+		Arrays.fill(pendingCorrectCounts, 0);
+		Arrays.fill(pendingPredictedCounts, 0);
+		Arrays.fill(pendingCorrectClassCounts, 0);
+		pendingResults = false;
+	}
+
+	private int getMajorityClass() {
+		int majorityClass = 0;
+		double maxProbClass = 0.0;
+		for (int i = 0; i < numClasses; i++) {
+			double probClass = estimation(trueSums[i], length);
+			if (probClass > maxProbClass) {
+				majorityClass = i;
+				maxProbClass = probClass;
+			}
+		}
+		return majorityClass;
+	}
+
+	private static double estimation(double sum, long count) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		return sum / count;
+	}
+
+	/**
+	 * Evaluator of one bin, reading its measurements from the statistics of all bins
+	 */
+	protected class Bin extends BasicClassificationPerformanceEvaluator {
+
+		private static final long serialVersionUID = 1L;
+
+		private int binIndex;
+
+		protected Bin(int binIndex) {
+			this.binIndex = binIndex;
+		}
+
+		// reset the counters kept by this bin only
+		private void resetBin(int numClasses) {
+			super.reset(numClasses);
+		}
+
+		// bins share their statistics, so all of them are reset
+		@Override
+		public void reset(int numClasses) {
+			MultiBinClassificationPerformanceEvaluator.this.reset(numClasses);
+		}
+
+		@Override
+		protected void resetEstimators(int numClasses) {
+		}
+
+		@Override
+		public void addResult(Example<Instance> example, double[] classVotes) {
+			addResults(binIndex, binIndex, example, classVotes, false);
+		}
+
+		@Override
+		public void addClonedResult(Example<Instance> example, double[] classVotes) {
+			addResults(binIndex, binIndex, example, classVotes, true);
+		}
+
+		// the range is added at once if the evaluators of the range are the consecutive bins of this evaluator
+		@Override
+		public void addClonedResults(BinnedPerformanceEvaluator<Example<Instance>>[] binEvaluators, int fromBin,
+				int toBin, Example<Instance> example, double[] classVotes) {
+			int toBinIndex = binIndex + toBin - fromBin;
+			if (binEvaluators[fromBin] == this && toBinIndex < binCount && binEvaluators[toBin] == bins[toBinIndex]) {
+				addResults(binIndex, toBinIndex, example, classVotes, true);
+			} else {
+				super.addClonedResults(binEvaluators, fromBin, toBin, example, classVotes);
+			}
+		}
+
+		@Override
+		public double getTotalWeightObserved() {
+			return totalWeightObserved;
+		}
+
+		@Override
+		public double getTotalPredictionCount() {
+			return totalPredictionCounts[binIndex];
+		}
+
+		@Override
+		public double getFractionCorrectlyClassified() {
+			addPendingResults();
+			return estimation(correctSums[binIndex], length);
+		}
+
+		@Override
+		protected double getRowKappaEstimation(int classIndex) {
+			addPendingResults();
+			return estimation(predictedSums[binIndex * numClasses + classIndex], length);
+		}
+
+		@Override
+		protected double getColumnKappaEstimation(int classIndex) {
+			return estimation(trueSums[classIndex], length);
+		}
+
+		@Override
+		protected double getPrecisionEstimation(int classIndex) {
+			addPendingResults();
+			return estimation(correctClassSums[binIndex * numClasses + classIndex],
+					predictedCounts[binIndex * numClasses + classIndex]);
+		}
+
+		@Override
+		protected double getRecallEstimation(int classIndex) {
+			addPendingResults();
+			return estimation(correctClassSums[binIndex * numClasses + classIndex], trueCounts[classIndex]);
+		}
+
+		@Override
+		protected double getNoChangeClassifierEstimation() {
+			return estimation(noChangeSum, baselineLength);
+		}
+
+		@Override
+		protected double getMajorityClassifierEstimation() {
+			return estimation(majoritySum, baselineLength);
+		}
+
+	}
+
+}
@@ -0,0 +1,150 @@
+/*
+ *    PhaseTimer.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import moa.core.Measurement;
+import moa.core.TimingUtils;
+
+/**
+ * Class that breaks down the CPU time of a prequential evaluation into its phases, such as predictions,
+ * re-predictions, mapping predictions to bins, evaluator updates, training and writing results.
+ * The evaluation is always in exactly one phase, time not spent in any instrumented phase is
+ * attributed to the OTHER phase. Entering a phase reads the CPU clock of the current thread once
+ * and charges the time elapsed since the previous phase was entered to that phase.
+ * Time of re-predictions made by other threads is not included, only the time the evaluation waits for them.
+ * Only the phases an evaluation can enter are reported, so that a task without e.g. re-predictions
+ * does not report their time as zero
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class PhaseTimer {
+
+	public enum Phase {
+		PREDICTION("prediction"),
+		REPREDICTION("reprediction"),
+		BIN_MAPPING("bin mapping"),
+		EVALUATOR_UPDATE("evaluator update"),
+		TRAINING("training"),
+		OUTPUT("output"),
+		OTHER("other");
+
+		private final String name;
+
+		Phase(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private long[] phaseTimes = new long[PHASES.length];
+
+	// the phase times at the previous sample
+	private long[] sampleStartTimes = new long[PHASES.length];
+
+	// the phases reported in the measurements, in the order of their declaration
+	private EnumSet<Phase> reportedPhases;
+
+	private Phase currentPhase = Phase.OTHER;
+
+	private long phaseStartTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
+
+	// time all phases
+	public PhaseTimer() {
+		this.reportedPhases = EnumSet.allOf(Phase.class);
+	}
+
+	// time the phases the evaluation can enter, the OTHER phase is always reported
+	public PhaseTimer(Phase... phases) {
+		this.reportedPhases = EnumSet.of(Phase.OTHER, phases);
+	}
+
+	// charge the time since the previous phase was entered to that phase and enter the given phase
+	public void enter(Phase phase) {
+		long time = TimingUtils.getNanoCPUTimeOfCurrentThread();
+		phaseTimes[currentPhase.ordinal()] += time - phaseStartTime;
+		phaseStartTime = time;
+		currentPhase = phase;
+	}
+
+	// the time spent in the phase so far, in nanoseconds
+	public long getPhaseTime(Phase phase) {
+		return phaseTimes[phase.ordinal()];
+	}
+
+	// get the cumulative times of all phases in nanoseconds by the names of the phases, to be restored with setPhaseTimes
+	public Map<String, Long> getPhaseTimes() {
+		Map<String, Long> times = new LinkedHashMap<String, Long>();
+		for (Phase phase : PHASES) {
+			times.put(phase.getName(), phaseTimes[phase.ordinal()]);
+		}
+		return times;
+	}
+
+	// continue from the times of an interrupted evaluation, phases missing from the times start from zero
+	public void setPhaseTimes(Map<String, Long> times) {
+		long[] restoredTimes = new long[PHASES.length];
+		for (Map.Entry<String, Long> time : times.entrySet()) {
+			Phase phase = getPhase(time.getKey());
+			if (phase == null) {
+				throw new IllegalArgumentException("Unknown phase of the evaluation: " + time.getKey());
+			}
+			restoredTimes[phase.ordinal()] = time.getValue();
+		}
+		phaseTimes = restoredTimes;
+		sampleStartTimes = Arrays.copyOf(restoredTimes, restoredTimes.length);
+	}
+
+	private static Phase getPhase(String name) {
+		for (Phase phase : PHASES) {
+			if (phase.getName().equals(name)) {
+				return phase;
+			}
+		}
+		return null;
+	}
+
+	// append the cumulative time of every phase and the time since the previous sample to the measurements,
+	// the time of the phase being in progress is charged to it first
+	public Measurement[] addSampleMeasurements(Measurement[] measurements, boolean preciseCPUTiming) {
+		enter(currentPhase);
+		String unit = " (" + (preciseCPUTiming ? "cpu " : "") + "seconds)";
+		Measurement[] result = Arrays.copyOf(measurements, measurements.length + 2 * this.reportedPhases.size());
+		int index = measurements.length;
+		for (Phase phase : this.reportedPhases) {
+			int i = phase.ordinal();
+			result[index++] = new Measurement(phase.getName() + " time" + unit,
+					TimingUtils.nanoTimeToSeconds(phaseTimes[i]));
+			result[index++] = new Measurement(phase.getName() + " time in sample" + unit,
+					TimingUtils.nanoTimeToSeconds(phaseTimes[i] - sampleStartTimes[i]));
+			sampleStartTimes[i] = phaseTimes[i];
+		}
+		return result;
+	}
+
+}
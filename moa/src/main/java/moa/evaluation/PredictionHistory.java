@@ -0,0 +1,227 @@
+/*
+ *    PredictionHistory.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Class that stores the predictions made for one instance awaiting its true label
+ * in growable primitive arrays rather than in separate PredictionItem objects.
+ * Time stamps and prediction types are kept in parallel arrays, class votes of all predictions
+ * are packed into one array with the offsets of the votes of every prediction.
+ * When only the winning class of every prediction matters, i.e. the evaluator uses predicted class only,
+ * just the index of the winning class is kept and the votes are restored as 0/1 votes
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class PredictionHistory implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final PredictionItem.PredictionType[] PREDICTION_TYPES = PredictionItem.PredictionType.values();
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	// keep only the index of the winning class of every prediction
+	private boolean winningClassOnly;
+
+	private int size;
+
+	private long[] timeStamps = new long[INITIAL_CAPACITY];
+
+	private byte[] types = new byte[INITIAL_CAPACITY];
+
+	// votes of i-th prediction are stored in votes[voteOffsets[i]..voteOffsets[i+1]-1]
+	// in winning class mode the offsets are kept as well, to restore votes of the original length
+	private int[] voteOffsets = new int[INITIAL_CAPACITY + 1];
+
+	private double[] votes;
+
+	private int[] winningClasses;
+
+	public PredictionHistory(boolean winningClassOnly) {
+		this.winningClassOnly = winningClassOnly;
+		if (winningClassOnly) {
+			winningClasses = new int[INITIAL_CAPACITY];
+		} else {
+			votes = new double[0];
+		}
+	}
+
+	public PredictionHistory() {
+		this(false);
+	}
+
+	public boolean isWinningClassOnly() {
+		return winningClassOnly;
+	}
+
+	public void add(double[] classVotes, long predictionTimeStamp, PredictionItem.PredictionType predictionType) {
+		if (size == timeStamps.length) {
+			int capacity = size + (size >> 1) + 1;
+			timeStamps = Arrays.copyOf(timeStamps, capacity);
+			types = Arrays.copyOf(types, capacity);
+			voteOffsets = Arrays.copyOf(voteOffsets, capacity + 1);
+			if (winningClassOnly) {
+				winningClasses = Arrays.copyOf(winningClasses, capacity);
+			}
+		}
+		int offset = voteOffsets[size];
+		if (winningClassOnly) {
+			winningClasses[size] = getWinningClass(classVotes);
+		} else {
+			if (offset + classVotes.length > votes.length) {
+				votes = Arrays.copyOf(votes, Math.max(offset + classVotes.length, votes.length + (votes.length >> 1)));
+			}
+			System.arraycopy(classVotes, 0, votes, offset, classVotes.length);
+		}
+		timeStamps[size] = predictionTimeStamp;
+		types[size] = (byte) predictionType.ordinal();
+		voteOffsets[size + 1] = offset + classVotes.length;
+		size++;
+	}
+
+	public void add(PredictionItem predictionItem) {
+		add(predictionItem.getClassVotes(), predictionItem.getPredictionTimeStamp(),
+				predictionItem.getPredictionType());
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getPredictionTimeStamp(int index) {
+		return timeStamps[index];
+	}
+
+	public PredictionItem.PredictionType getPredictionType(int index) {
+		return PREDICTION_TYPES[types[index]];
+	}
+
+	public int getNumVotes(int index) {
+		return voteOffsets[index + 1] - voteOffsets[index];
+	}
+
+	// get a copy of the votes of index-th prediction
+	public double[] getClassVotes(int index) {
+		double[] classVotes = new double[getNumVotes(index)];
+		if (winningClassOnly) {
+			if (classVotes.length > 0) {
+				classVotes[winningClasses[index]] = 1;
+			}
+		} else {
+			System.arraycopy(votes, voteOffsets[index], classVotes, 0, classVotes.length);
+		}
+		return classVotes;
+	}
+
+	// get the votes of index-th prediction in an array taken from the buffer
+	public double[] getClassVotes(int index, VotesBuffer votesBuffer) {
+		double[] classVotes = votesBuffer.getBuffer(getNumVotes(index));
+		if (winningClassOnly) {
+			if (classVotes.length > 0) {
+				Arrays.fill(classVotes, 0);
+				classVotes[winningClasses[index]] = 1;
+			}
+		} else {
+			System.arraycopy(votes, voteOffsets[index], classVotes, 0, classVotes.length);
+		}
+		return classVotes;
+	}
+
+	public PredictionItem getPredictionItem(int index) {
+		return new PredictionItem(getClassVotes(index), getPredictionTimeStamp(index), getPredictionType(index));
+	}
+
+	// the approximate number of bytes the arrays of this history occupy on heap
+	public long getHeapSize() {
+		long heapSize = 4 * 16 + 8L * timeStamps.length + types.length + 4L * voteOffsets.length;
+		return heapSize + (winningClassOnly ? 4L * winningClasses.length : 8L * votes.length);
+	}
+
+	// the number of bytes written by writeTo
+	public int getRecordSize() {
+		return 1 + 4 + 8 * size + size + 4 * (size + 1) + (winningClassOnly ? 4 * size : 8 * voteOffsets[size]);
+	}
+
+	// write the predictions in a compact binary form, without the spare capacity of the arrays
+	public void writeTo(ByteBuffer buffer) {
+		buffer.put((byte) (winningClassOnly ? 1 : 0));
+		buffer.putInt(size);
+		for (int i = 0; i < size; i++) {
+			buffer.putLong(timeStamps[i]);
+		}
+		buffer.put(types, 0, size);
+		for (int i = 0; i <= size; i++) {
+			buffer.putInt(voteOffsets[i]);
+		}
+		if (winningClassOnly) {
+			for (int i = 0; i < size; i++) {
+				buffer.putInt(winningClasses[i]);
+			}
+		} else {
+			for (int i = 0; i < voteOffsets[size]; i++) {
+				buffer.putDouble(votes[i]);
+			}
+		}
+	}
+
+	// read the predictions written by writeTo
+	public static PredictionHistory readFrom(ByteBuffer buffer) {
+		PredictionHistory history = new PredictionHistory(buffer.get() == 1);
+		int size = buffer.getInt();
+		history.size = size;
+		history.timeStamps = new long[size];
+		for (int i = 0; i < size; i++) {
+			history.timeStamps[i] = buffer.getLong();
+		}
+		history.types = new byte[size];
+		buffer.get(history.types);
+		history.voteOffsets = new int[size + 1];
+		for (int i = 0; i <= size; i++) {
+			history.voteOffsets[i] = buffer.getInt();
+		}
+		if (history.winningClassOnly) {
+			history.winningClasses = new int[size];
+			for (int i = 0; i < size; i++) {
+				history.winningClasses[i] = buffer.getInt();
+			}
+		} else {
+			history.votes = new double[history.voteOffsets[size]];
+			for (int i = 0; i < history.votes.length; i++) {
+				history.votes[i] = buffer.getDouble();
+			}
+		}
+		return history;
+	}
+
+	// the first index of the largest vote, as used by evaluators to find predicted class
+	private static int getWinningClass(double[] classVotes) {
+		int winningClass = 0;
+		for (int i = 1; i < classVotes.length; i++) {
+			if (classVotes[winningClass] < classVotes[i]) {
+				winningClass = i;
+			}
+		}
+		return winningClass;
+	}
+
+}
@@ -0,0 +1,278 @@
+/*
+ *    PredictionWriter.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class that writes text lines, such as the predictions made for every instance, to a file without
+ * a write call per line. Lines are formatted into a reusable byte buffer, which is handed over
+ * to a background writer thread through a bounded queue once it is full or once the oldest line
+ * it holds is older than the flush interval, so that the file lags behind the evaluation by at most
+ * about the flush interval. The filled buffers are written in the order they are handed over and reused.
+ * Lines are written in the same form as by PrintStream, numbers are formatted as by String.valueOf
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class PredictionWriter {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	// the number of filled buffers that can wait for the writer thread before the evaluation is blocked
+	private static final int QUEUE_CAPACITY = 4;
+
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+	// the time in milliseconds between the checks whether the writer thread failed, while waiting for it
+	private static final long FAILURE_CHECK_INTERVAL = 100;
+
+	// the longest text of a long value
+	private static final int MAX_LONG_LENGTH = 20;
+
+	private File file;
+
+	private FileChannel channel;
+
+	private long flushIntervalNanos;
+
+	private ByteBuffer buffer;
+
+	// the time the first line in the buffer was completed at
+	private long bufferTime;
+
+	private BlockingQueue<ByteBuffer> filledBuffers = new ArrayBlockingQueue<ByteBuffer>(QUEUE_CAPACITY);
+
+	private BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<ByteBuffer>(QUEUE_CAPACITY + 1);
+
+	private Thread writerThread;
+
+	// the numbers of buffers handed over to the writer thread and written by it, guarded by this
+	private long handedOverCount;
+
+	private long writtenCount;
+
+	private volatile IOException failure;
+
+	private byte[] digits = new byte[MAX_LONG_LENGTH];
+
+	public PredictionWriter(File file, boolean append) {
+		this(file, append, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	// file - the file to write to
+	// append - append lines to the file, if it exists, rather than overwrite it
+	// bufferSize - the number of bytes handed over to the writer thread at once
+	// flushInterval - the maximum time in milliseconds a completed line waits in the buffer, if further lines are written
+	public PredictionWriter(File file, boolean append, int bufferSize, long flushInterval) {
+		this.file = file;
+		this.flushIntervalNanos = flushInterval * 1000000L;
+		this.buffer = ByteBuffer.allocate(Math.max(bufferSize, 2 * MAX_LONG_LENGTH));
+		try {
+			this.channel = new FileOutputStream(file, append).getChannel();
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to open prediction result file: " + file, ex);
+		}
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeFilledBuffers();
+			}
+		}, "prediction writer: " + file.getName());
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	public void print(String s) {
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				put(s.getBytes(StandardCharsets.UTF_8), i);
+				return;
+			}
+			if (!this.buffer.hasRemaining()) {
+				handOver();
+			}
+			this.buffer.put((byte) c);
+		}
+	}
+
+	public void print(char c) {
+		if (c >= 0x80) {
+			print(String.valueOf(c));
+			return;
+		}
+		if (!this.buffer.hasRemaining()) {
+			handOver();
+		}
+		this.buffer.put((byte) c);
+	}
+
+	public void print(long value) {
+		if (value == Long.MIN_VALUE) {
+			print(Long.toString(value));
+			return;
+		}
+		if (this.buffer.remaining() < MAX_LONG_LENGTH) {
+			handOver();
+		}
+		if (value < 0) {
+			this.buffer.put((byte) '-');
+			value = -value;
+		}
+		int position = MAX_LONG_LENGTH;
+		do {
+			this.digits[--position] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value > 0);
+		this.buffer.put(this.digits, position, MAX_LONG_LENGTH - position);
+	}
+
+	public void print(double value) {
+		print(Double.toString(value));
+	}
+
+	public void println() {
+		for (byte b : LINE_SEPARATOR) {
+			if (!this.buffer.hasRemaining()) {
+				handOver();
+			}
+			this.buffer.put(b);
+		}
+		long time = System.nanoTime();
+		if (this.bufferTime == 0) {
+			this.bufferTime = time;
+		} else if (time - this.bufferTime >= this.flushIntervalNanos) {
+			handOver();
+		}
+	}
+
+	// put bytes starting at the given offset
+	private void put(byte[] bytes, int offset) {
+		while (offset < bytes.length) {
+			if (!this.buffer.hasRemaining()) {
+				handOver();
+			}
+			int length = Math.min(this.buffer.remaining(), bytes.length - offset);
+			this.buffer.put(bytes, offset, length);
+			offset += length;
+		}
+	}
+
+	// write all lines printed so far to the file and wait until they are written
+	public void flush() {
+		if (this.buffer.position() > 0) {
+			handOver();
+		}
+		synchronized (this) {
+			while (this.writtenCount < this.handedOverCount && this.failure == null && this.writerThread.isAlive()) {
+				try {
+					wait(FAILURE_CHECK_INTERVAL);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while writing prediction result file: " + this.file, ex);
+				}
+			}
+		}
+		checkFailure();
+	}
+
+	public void close() {
+		try {
+			flush();
+		} finally {
+			// the writer thread is stopped and the file is closed also if the lines could not be written
+			this.writerThread.interrupt();
+			try {
+				this.writerThread.join();
+				this.channel.close();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch (IOException ex) {
+				throw new RuntimeException("Unable to close prediction result file: " + this.file, ex);
+			}
+		}
+	}
+
+	// pass the buffer to the writer thread and continue with a free buffer
+	private void handOver() {
+		checkFailure();
+		((Buffer) this.buffer).flip();
+		synchronized (this) {
+			this.handedOverCount++;
+		}
+		try {
+			// the writer thread may fail while the queue is full, so that the buffer would never be taken
+			while (!this.filledBuffers.offer(this.buffer, FAILURE_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+				checkFailure();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while writing prediction result file: " + this.file, ex);
+		}
+		ByteBuffer freeBuffer = this.freeBuffers.poll();
+		this.buffer = (freeBuffer != null) ? freeBuffer : ByteBuffer.allocate(this.buffer.capacity());
+		this.bufferTime = 0;
+	}
+
+	private void checkFailure() {
+		if (this.failure != null) {
+			throw new RuntimeException("Unable to write prediction result file: " + this.file, this.failure);
+		}
+		if (!this.writerThread.isAlive()) {
+			throw new RuntimeException("Writer thread of prediction result file stopped: " + this.file);
+		}
+	}
+
+	private void writeFilledBuffers() {
+		try {
+			while (true) {
+				ByteBuffer filledBuffer = this.filledBuffers.take();
+				while (filledBuffer.hasRemaining()) {
+					this.channel.write(filledBuffer);
+				}
+				((Buffer) filledBuffer).clear();
+				this.freeBuffers.offer(filledBuffer);
+				synchronized (this) {
+					this.writtenCount++;
+					notifyAll();
+				}
+			}
+		} catch (InterruptedException ex) {
+			// closed, all buffers were written
+		} catch (IOException ex) {
+			synchronized (this) {
+				this.failure = ex;
+				notifyAll();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+/*
+ *    RepredictionScheduler.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Class that schedules re-predictions of instances awaiting their true labels.
+ * Time is measured with a global counter of labelled instances (ticks). An instance buffered after
+ * tick t is re-predicted at ticks t+1+K, t+1+2K, ... where K is prediction frequency, i.e. every time
+ * K further labelled instances were used to update the model. Instances are kept in buckets
+ * keyed by the tick they are due at, so that advancing the counter returns only the instances due
+ * at this tick, in the order of their arrival
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class RepredictionScheduler implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// how many new labelled instances have to occur to trigger re-prediction
+	private int predictionFrequency;
+
+	// the number of labelled instances observed so far
+	private long labelledInstanceCount;
+
+	// instances already re-predicted at least once, bucketed by the tick of their next re-prediction
+	private HashMap<Long, ArrayList<InstanceInProgress>> buckets = new HashMap<Long, ArrayList<InstanceInProgress>>();
+
+	// instances awaiting their first re-prediction, in the order of arrival
+	private ArrayDeque<InstanceInProgress> newInstances = new ArrayDeque<InstanceInProgress>();
+
+	// instances due at the current tick, reused between ticks
+	private ArrayList<InstanceInProgress> dueInstances = new ArrayList<InstanceInProgress>();
+
+	public RepredictionScheduler(int predictionFrequency) {
+		this.predictionFrequency = predictionFrequency;
+	}
+
+	public int getPredictionFrequency() {
+		return predictionFrequency;
+	}
+
+	public long getLabelledInstanceCount() {
+		return labelledInstanceCount;
+	}
+
+	// start tracking an instance that has just been buffered
+	public void schedule(InstanceInProgress instanceInProgress) {
+		instanceInProgress.setArrivalTick(labelledInstanceCount);
+		newInstances.addLast(instanceInProgress);
+	}
+
+	// register the arrival of the next labelled instance and return the instances due for re-prediction
+	// the instances are rescheduled for their next re-prediction; instances that are no longer buffered are dropped
+	public ArrayList<InstanceInProgress> advance(InstancesInProgress buffer) {
+		labelledInstanceCount++;
+		dueInstances.clear();
+
+		// instances rescheduled K ticks ago arrived before any instance awaiting its first re-prediction
+		// so taking them first preserves the order of arrival
+		ArrayList<InstanceInProgress> bucket = buckets.remove(labelledInstanceCount);
+		if (bucket != null) {
+			for (InstanceInProgress instanceInProgress : bucket) {
+				if (buffer.isBuffered(instanceInProgress)) {
+					dueInstances.add(instanceInProgress);
+				}
+			}
+		}
+		while (!newInstances.isEmpty()
+				&& newInstances.peekFirst().getArrivalTick() + 1 + predictionFrequency <= labelledInstanceCount) {
+			InstanceInProgress instanceInProgress = newInstances.pollFirst();
+			if (buffer.isBuffered(instanceInProgress)) {
+				dueInstances.add(instanceInProgress);
+			}
+		}
+
+		if (!dueInstances.isEmpty()) {
+			if (bucket == null) {
+				bucket = new ArrayList<InstanceInProgress>(dueInstances.size());
+			} else {
+				bucket.clear();
+			}
+			bucket.addAll(dueInstances);
+			buckets.put(labelledInstanceCount + predictionFrequency, bucket);
+		}
+		return dueInstances;
+	}
+
+	// set the number of labelled instances observed so far when the state of a buffer is restored
+	public void setLabelledInstanceCount(long labelledInstanceCount) {
+		this.labelledInstanceCount = labelledInstanceCount;
+	}
+
+	// start tracking a restored instance, at the tick its next re-prediction is due at
+	// based on its arrival tick and the number of its re-predictions
+	// restored instances have to be rescheduled in the order of their arrival
+	public void reschedule(InstanceInProgress instanceInProgress) {
+		if (instanceInProgress.getRepredictionCount() == 0) {
+			newInstances.addLast(instanceInProgress);
+			return;
+		}
+		long dueTick = instanceInProgress.getArrivalTick() + 1
+				+ (instanceInProgress.getRepredictionCount() + 1L) * predictionFrequency;
+		ArrayList<InstanceInProgress> bucket = buckets.get(dueTick);
+		if (bucket == null) {
+			bucket = new ArrayList<InstanceInProgress>();
+			buckets.put(dueTick, bucket);
+		}
+		bucket.add(instanceInProgress);
+	}
+
+	public void clear() {
+		labelledInstanceCount = 0;
+		buckets.clear();
+		newInstances.clear();
+		dueInstances.clear();
+	}
+
+}
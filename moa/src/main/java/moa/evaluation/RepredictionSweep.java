@@ -0,0 +1,133 @@
+/*
+ *    RepredictionSweep.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import moa.learners.ConcurrentPredictor;
+import moa.learners.Learner;
+
+/**
+ * Class that calculates re-predictions for the instances due for re-prediction at one tick.
+ * As the model is not updated between two labelled instances, the instances can be split into
+ * batches predicted concurrently on a fork-join pool. Every instance gets its votes from the
+ * batch prediction of the learner, so the votes and their order are the same as in a sequential run.
+ * Concurrent predictions require a learner that does not modify its state while predicting, i.e. a learner
+ * whose class declares ConcurrentPredictor, other learners are re-predicted sequentially
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class RepredictionSweep {
+
+	// batches smaller than this are not split any further
+	private static final int MIN_BATCH_SIZE = 16;
+
+	private ForkJoinPool pool;
+
+	// number of jobs: -1 means all available processors, 0 and 1 mean sequential re-predictions
+	@SuppressWarnings("rawtypes")
+	public RepredictionSweep(int numberOfJobs, Learner learner) {
+		if (numberOfJobs == -1) {
+			numberOfJobs = Runtime.getRuntime().availableProcessors();
+		}
+		if (numberOfJobs > 1 && !isConcurrentPredictor(learner)) {
+			System.err.println("[WARNING] " + learner.getClass().getSimpleName()
+					+ " is not known to support concurrent predictions, the re-predictions are made sequentially");
+			numberOfJobs = 1;
+		}
+		if (numberOfJobs > 1) {
+			this.pool = new ForkJoinPool(numberOfJobs);
+		}
+	}
+
+	// the subclasses of a concurrent predictor have to declare the interface again
+	@SuppressWarnings("rawtypes")
+	public static boolean isConcurrentPredictor(Learner learner) {
+		return Arrays.asList(learner.getClass().getInterfaces()).contains(ConcurrentPredictor.class);
+	}
+
+	public boolean isParallel() {
+		return pool != null;
+	}
+
+	// get votes for the examples, in the order of the examples
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public double[][] getVotesForInstances(Learner learner, List examples) {
+		if (pool == null || examples.size() < 2 * MIN_BATCH_SIZE) {
+			return learner.getVotesForInstances(examples);
+		}
+		double[][] votes = new double[examples.size()][];
+		int batchSize = Math.max(MIN_BATCH_SIZE, examples.size() / (4 * pool.getParallelism()));
+		pool.invoke(new BatchPrediction(learner, examples, votes, 0, examples.size(), batchSize));
+		return votes;
+	}
+
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	private static class BatchPrediction extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		@SuppressWarnings("rawtypes")
+		private Learner learner;
+
+		@SuppressWarnings("rawtypes")
+		private List examples;
+
+		private double[][] votes;
+
+		private int from;
+
+		private int to;
+
+		private int batchSize;
+
+		@SuppressWarnings("rawtypes")
+		public BatchPrediction(Learner learner, List examples, double[][] votes, int from, int to, int batchSize) {
+			this.learner = learner;
+			this.examples = examples;
+			this.votes = votes;
+			this.from = from;
+			this.to = to;
+			this.batchSize = batchSize;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		protected void compute() {
+			if (to - from <= batchSize) {
+				double[][] batchVotes = learner.getVotesForInstances(examples.subList(from, to));
+				System.arraycopy(batchVotes, 0, votes, from, batchVotes.length);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BatchPrediction(learner, examples, votes, from, middle, batchSize),
+						new BatchPrediction(learner, examples, votes, middle, to, batchSize));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,329 @@
+/*
+ *    SpillingInstancesInProgress.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.yahoo.labs.samoa.instances.Instances;
+
+/**
+ * Class that represents a memory buffer of instances waiting for their true labels, which keeps
+ * on heap only as many instances as fit in a heap budget. The attribute values and the prediction history
+ * of the remaining instances are spilled in a compact binary form to a memory-mapped file and brought back
+ * when the instances are due for re-prediction or their true labels arrive.
+ * An instance re-predicted or buffered at a tick is not needed again before K further labelled instances
+ * arrive, i.e. later than any other buffered instance, so it is the instance spilled when the budget is exceeded.
+ * Only instances with dense attribute values and prediction histories are spilled, instances with predictions mapped to bins
+ * as they are made remain on heap. The file is split into segments reused once all their records are read back
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class SpillingInstancesInProgress extends InstancesInProgress {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int SEGMENT_SIZE = 1 << 24;
+
+	// the approximate size of the objects of a dense instance other than its values
+	private static final int INSTANCE_HEAP_SIZE = 96;
+
+	private long heapBudget;
+
+	// the approximate number of bytes occupied by the examples and predictions kept on heap
+	private long residentBytes;
+
+	private int spilledCount;
+
+	private File file;
+
+	// the file did not exist before, so it is deleted when the buffer is closed
+	private boolean createdFile;
+
+	private transient RandomAccessFile randomAccessFile;
+
+	private transient ArrayList<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	// the number of records of every segment not read back yet
+	private int[] segmentRecordCounts = new int[0];
+
+	private long fileLength;
+
+	private int currentSegment = -1;
+
+	private int writePosition;
+
+	// the header shared by all instances of the stream, used to restore spilled instances
+	private Instances dataset;
+
+	// heapBudget - the number of bytes available to the examples and predictions of buffered instances
+	// file - the file instances are spilled to, it must not exist or be empty, a temporary file is created if null
+	public SpillingInstancesInProgress(int predictionFrequency, long heapBudget, File file) {
+		this(predictionFrequency, heapBudget, file, false);
+	}
+
+	// overwrite - truncate the file if it is not empty, e.g. the file left by an interrupted run resumed
+	// from a checkpoint, spilled records are never read back from a previous run
+	public SpillingInstancesInProgress(int predictionFrequency, long heapBudget, File file, boolean overwrite) {
+		super(predictionFrequency);
+		this.heapBudget = heapBudget;
+		try {
+			if (file == null) {
+				file = File.createTempFile("instancesInProgress", ".spill");
+				file.deleteOnExit();
+				this.createdFile = true;
+			} else if (file.length() > 0 && !overwrite) {
+				throw new RuntimeException("Spill file is not empty, it would be overwritten: " + file);
+			} else {
+				this.createdFile = !file.exists();
+			}
+			this.file = file;
+			this.randomAccessFile = new RandomAccessFile(file, "rw");
+			this.randomAccessFile.setLength(0);
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to open spill file: " + file, ex);
+		}
+	}
+
+	@Override
+	public InstanceInProgress add(InstanceInProgress instanceInProgress) {
+		InstanceInProgress previousInstance = super.add(instanceInProgress);
+		if (previousInstance != null) {
+			release(previousInstance);
+		}
+		residentBytes += getHeapSize(instanceInProgress);
+		spillIfOverBudget(instanceInProgress);
+		return previousInstance;
+	}
+
+	@Override
+	public void addPrediction(InstanceInProgress instanceInProgress, double[] classVotes, long predictionTimeStamp,
+			PredictionItem.PredictionType predictionType) {
+		if (!isBuffered(instanceInProgress)) {
+			super.addPrediction(instanceInProgress, classVotes, predictionTimeStamp, predictionType);
+			return;
+		}
+		load(instanceInProgress);
+		long heapSize = getHeapSize(instanceInProgress);
+		super.addPrediction(instanceInProgress, classVotes, predictionTimeStamp, predictionType);
+		residentBytes += getHeapSize(instanceInProgress) - heapSize;
+		spillIfOverBudget(instanceInProgress);
+	}
+
+	@Override
+	protected void addRestored(InstanceInProgress instanceInProgress) {
+		super.addRestored(instanceInProgress);
+		residentBytes += getHeapSize(instanceInProgress);
+		spillIfOverBudget(instanceInProgress);
+	}
+
+	@Override
+	public InstanceInProgress get(long instanceId) {
+		InstanceInProgress instanceInProgress = super.get(instanceId);
+		if (instanceInProgress != null) {
+			load(instanceInProgress);
+		}
+		return instanceInProgress;
+	}
+
+	@Override
+	public InstanceInProgress remove(long instanceId) {
+		InstanceInProgress instanceInProgress = super.remove(instanceId);
+		if (instanceInProgress != null) {
+			release(instanceInProgress);
+		}
+		return instanceInProgress;
+	}
+
+	// the instances due for re-prediction are brought back to heap, they are spilled again
+	// as their re-predictions are added if the budget is exceeded
+	@Override
+	public ArrayList<InstanceInProgress> nextLabelledInstance() {
+		ArrayList<InstanceInProgress> dueInstances = super.nextLabelledInstance();
+		for (InstanceInProgress instanceInProgress : dueInstances) {
+			load(instanceInProgress);
+		}
+		return dueInstances;
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		Arrays.fill(segmentRecordCounts, 0);
+		currentSegment = -1;
+		residentBytes = 0;
+		spilledCount = 0;
+	}
+
+	// the buffered instances and the mapped segments are dropped, so that the mappings of the file
+	// are released once the segments are garbage collected
+	@Override
+	public void close() {
+		clear();
+		segments.clear();
+		segmentRecordCounts = new int[0];
+		fileLength = 0;
+		dataset = null;
+		if (randomAccessFile == null) {
+			return;
+		}
+		try {
+			if (!createdFile) {
+				randomAccessFile.setLength(0);
+			}
+			randomAccessFile.close();
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to close spill file: " + file, ex);
+		}
+		randomAccessFile = null;
+		if (createdFile) {
+			file.delete();
+		}
+	}
+
+	// iterate over buffered instances in the order of their arrival, every instance is brought back to heap
+	// when it is reached and spilled again when the next one is reached, if the budget is exceeded
+	@Override
+	public Iterator<InstanceInProgress> iterator() {
+		final Iterator<InstanceInProgress> iterator = super.iterator();
+		return new Iterator<InstanceInProgress>() {
+
+			private InstanceInProgress previousInstance;
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public InstanceInProgress next() {
+				if (previousInstance != null && isBuffered(previousInstance)) {
+					spillIfOverBudget(previousInstance);
+				}
+				previousInstance = iterator.next();
+				load(previousInstance);
+				return previousInstance;
+			}
+		};
+	}
+
+	public long getHeapBudget() {
+		return heapBudget;
+	}
+
+	public long getResidentBytes() {
+		return residentBytes;
+	}
+
+	// the number of buffered instances currently spilled to disk
+	public int getSpilledCount() {
+		return spilledCount;
+	}
+
+	// the instance is no longer buffered
+	private void release(InstanceInProgress instanceInProgress) {
+		load(instanceInProgress);
+		residentBytes -= getHeapSize(instanceInProgress);
+	}
+
+	private static long getHeapSize(InstanceInProgress instanceInProgress) {
+		long heapSize = INSTANCE_HEAP_SIZE + 8L * instanceInProgress.getInstance().numAttributes();
+		if (instanceInProgress.getPredictionHistory() != null) {
+			heapSize += instanceInProgress.getPredictionHistory().getHeapSize();
+		}
+		return heapSize;
+	}
+
+	private void spillIfOverBudget(InstanceInProgress instanceInProgress) {
+		if (residentBytes > heapBudget && !instanceInProgress.isSpilled()
+				&& instanceInProgress.hasCompactForm()) {
+			residentBytes -= getHeapSize(instanceInProgress);
+			spill(instanceInProgress);
+		}
+	}
+
+	private void spill(InstanceInProgress instanceInProgress) {
+		if (dataset == null) {
+			dataset = instanceInProgress.getInstance().dataset();
+		}
+		int recordSize = instanceInProgress.getCompactFormSize();
+		MappedByteBuffer segment = allocate(recordSize);
+		long spillPosition = ((long) currentSegment << 32) | writePosition;
+		((Buffer) segment).position(writePosition);
+		instanceInProgress.writeCompactForm(segment);
+		writePosition += recordSize;
+		segmentRecordCounts[currentSegment]++;
+
+		instanceInProgress.spill(spillPosition);
+		spilledCount++;
+	}
+
+	// bring back a spilled instance
+	private void load(InstanceInProgress instanceInProgress) {
+		if (!instanceInProgress.isSpilled()) {
+			return;
+		}
+		int segmentIndex = (int) (instanceInProgress.getSpillPosition() >>> 32);
+		MappedByteBuffer segment = segments.get(segmentIndex);
+		((Buffer) segment).position((int) instanceInProgress.getSpillPosition());
+		instanceInProgress.restore(segment, dataset);
+
+		if (--segmentRecordCounts[segmentIndex] == 0 && segmentIndex == currentSegment) {
+			writePosition = 0;
+		}
+		spilledCount--;
+		residentBytes += getHeapSize(instanceInProgress);
+	}
+
+	// get a segment with space for a record of the given size, starting at writePosition
+	private MappedByteBuffer allocate(int recordSize) {
+		if (currentSegment >= 0 && writePosition + recordSize <= segments.get(currentSegment).capacity()) {
+			return segments.get(currentSegment);
+		}
+		writePosition = 0;
+		for (int i = 0; i < segments.size(); i++) {
+			if (segmentRecordCounts[i] == 0 && segments.get(i).capacity() >= recordSize) {
+				currentSegment = i;
+				return segments.get(i);
+			}
+		}
+		int segmentSize = Math.max(SEGMENT_SIZE, recordSize);
+		try {
+			MappedByteBuffer segment = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, fileLength,
+					segmentSize);
+			segment.order(ByteOrder.nativeOrder());
+			segments.add(segment);
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to spill instances to file: " + file, ex);
+		}
+		fileLength += segmentSize;
+		segmentRecordCounts = Arrays.copyOf(segmentRecordCounts, segments.size());
+		currentSegment = segments.size() - 1;
+		return segments.get(currentSegment);
+	}
+
+}
@@ -0,0 +1,47 @@
+/*
+ *    VotesBuffer.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Class that holds arrays reused to restore the votes of predictions kept in prediction histories,
+ * one array for every number of votes. An array is valid until votes of the same length are restored again,
+ * which is sufficient for evaluators consuming the votes immediately
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class VotesBuffer implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private double[][] buffers = new double[0][];
+
+	public double[] getBuffer(int numVotes) {
+		if (numVotes >= buffers.length) {
+			buffers = Arrays.copyOf(buffers, numVotes + 1);
+		}
+		if (buffers[numVotes] == null) {
+			buffers[numVotes] = new double[numVotes];
+		}
+		return buffers[numVotes];
+	}
+
+}
@@ -38,6 +38,12 @@ import java.util.LinkedList;
 /**
  * Classification evaluator that updates evaluation results using a sliding
  * window.
+ * Rather than a window of values per measurement and class, a single ring of
+ * (predicted class, true class, weight) records is kept, together with a ring of
+ * the results of the no change and majority class classifiers, updated for every
+ * labelled instance. All running sums are maintained incrementally as records enter
+ * and leave the window, in the same order as in separate window estimators,
+ * so the measurements are the same.
  *
  * @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
  * @author Jean Paul Barddal (jpbarddal@gmail.com)
@@ -51,59 +57,176 @@ public class WindowClassificationPerformanceEvaluator extends BasicClassificatio
 
 	public IntOption widthOption = new IntOption("width", 'w', "Size of Window", 1000);
 
-	@Override
-	protected Estimator newEstimator() {
-		return new WindowEstimator(this.widthOption.getValue());
-	}
+	// the window of classifications of positive weight
+	protected int[] predictedClasses;
+
+	protected int[] trueClasses;
+
+	protected double[] weights;
+
+	protected int position;
+
+	protected int length;
+
+	protected double correctSum;
+
+	// the sums of weights per predicted and true class and of correct classifications per class,
+	// the latter are the same for precision and recall
+	protected double[] predictedSums;
+
+	protected double[] trueSums;
+
+	protected double[] correctSums;
+
+	protected int[] predictedCounts;
+
+	protected int[] trueCounts;
 
-	public class WindowEstimator implements Estimator {
+	// the window of results of no change and majority class classifiers
+	protected double[] baselineWeights;
 
-		protected double[] window;
+	protected byte[] baselineResults;
 
-		protected int posWindow;
+	protected int baselinePosition;
 
-		protected int lenWindow;
+	protected int baselineLength;
 
-		protected int SizeWindow;
+	protected double noChangeSum;
 
-		protected double sum;
+	protected double majoritySum;
 
-		protected double qtyNaNs;
+	private static final byte NO_CHANGE_CORRECT = 1;
 
-		public WindowEstimator(int sizeWindow) {
-			window = new double[sizeWindow];
-			SizeWindow = sizeWindow;
-			posWindow = 0;
-			lenWindow = 0;
+	private static final byte MAJORITY_CORRECT = 2;
+
+	@Override
+	protected void resetEstimators(int numClasses) {
+		int width = this.widthOption.getValue();
+		this.predictedClasses = new int[width];
+		this.trueClasses = new int[width];
+		this.weights = new double[width];
+		this.position = 0;
+		this.length = 0;
+		this.correctSum = 0;
+		this.predictedSums = new double[numClasses];
+		this.trueSums = new double[numClasses];
+		this.correctSums = new double[numClasses];
+		this.predictedCounts = new int[numClasses];
+		this.trueCounts = new int[numClasses];
+		this.baselineWeights = new double[width];
+		this.baselineResults = new byte[width];
+		this.baselinePosition = 0;
+		this.baselineLength = 0;
+		this.noChangeSum = 0;
+		this.majoritySum = 0;
+	}
+
+	@Override
+	protected void addClassificationResult(int predictedClass, int trueClass, double weight) {
+		if (this.length == this.weights.length) {
+			// forget the oldest record, zero values are neither subtracted nor added
+			int forgottenPredictedClass = this.predictedClasses[this.position];
+			int forgottenTrueClass = this.trueClasses[this.position];
+			double forgottenWeight = this.weights[this.position];
+			if (forgottenPredictedClass == forgottenTrueClass) {
+				this.correctSum -= forgottenWeight;
+				this.correctSums[forgottenTrueClass] -= forgottenWeight;
+			}
+			this.predictedSums[forgottenPredictedClass] -= forgottenWeight;
+			this.trueSums[forgottenTrueClass] -= forgottenWeight;
+			this.predictedCounts[forgottenPredictedClass]--;
+			this.trueCounts[forgottenTrueClass]--;
+		} else {
+			this.length++;
 		}
+		if (predictedClass == trueClass) {
+			this.correctSum += weight;
+			this.correctSums[trueClass] += weight;
+		}
+		this.predictedSums[predictedClass] += weight;
+		this.trueSums[trueClass] += weight;
+		this.predictedCounts[predictedClass]++;
+		this.trueCounts[trueClass]++;
+		this.predictedClasses[this.position] = predictedClass;
+		this.trueClasses[this.position] = trueClass;
+		this.weights[this.position] = weight;
+		if (++this.position == this.weights.length) {
+			this.position = 0;
+		}
+	}
 
-		public void add(double value) {
-			double forget = window[posWindow];
-			if (!Double.isNaN(forget)) {
-				sum -= forget;
-			} else
-				qtyNaNs--;
-			if (!Double.isNaN(value)) {
-				sum += value;
-			} else
-				qtyNaNs++;
-			window[posWindow] = value;
-			posWindow++;
-			if (posWindow == SizeWindow) {
-				posWindow = 0;
+	@Override
+	protected void addBaselineResult(boolean noChangeCorrect, boolean majorityCorrect, double weight) {
+		if (this.baselineLength == this.baselineWeights.length) {
+			byte forgottenResult = this.baselineResults[this.baselinePosition];
+			double forgottenWeight = this.baselineWeights[this.baselinePosition];
+			if ((forgottenResult & NO_CHANGE_CORRECT) != 0) {
+				this.noChangeSum -= forgottenWeight;
 			}
-			if (lenWindow < SizeWindow) {
-				lenWindow++;
+			if ((forgottenResult & MAJORITY_CORRECT) != 0) {
+				this.majoritySum -= forgottenWeight;
 			}
+		} else {
+			this.baselineLength++;
 		}
+		if (noChangeCorrect) {
+			this.noChangeSum += weight;
+		}
+		if (majorityCorrect) {
+			this.majoritySum += weight;
+		}
+		this.baselineResults[this.baselinePosition] = (byte) ((noChangeCorrect ? NO_CHANGE_CORRECT : 0)
+				| (majorityCorrect ? MAJORITY_CORRECT : 0));
+		this.baselineWeights[this.baselinePosition] = weight;
+		if (++this.baselinePosition == this.baselineWeights.length) {
+			this.baselinePosition = 0;
+		}
+	}
 
-		public double estimation() {
-			if (lenWindow - qtyNaNs == 0)
-				return Double.NaN;
-
-			return sum / (lenWindow - qtyNaNs);
+	@Override
+	public double getFractionCorrectlyClassified() {
+		if (this.weights == null) {
+			return Double.NaN;
 		}
+		return estimation(this.correctSum, this.length);
+	}
+
+	@Override
+	protected double getRowKappaEstimation(int classIndex) {
+		return estimation(this.predictedSums[classIndex], this.length);
+	}
+
+	@Override
+	protected double getColumnKappaEstimation(int classIndex) {
+		return estimation(this.trueSums[classIndex], this.length);
+	}
+
+	// instances of other predicted classes are not counted, as NaN values in a window estimator
+	@Override
+	protected double getPrecisionEstimation(int classIndex) {
+		return estimation(this.correctSums[classIndex], this.predictedCounts[classIndex]);
+	}
+
+	@Override
+	protected double getRecallEstimation(int classIndex) {
+		return estimation(this.correctSums[classIndex], this.trueCounts[classIndex]);
+	}
+
+	@Override
+	protected double getNoChangeClassifierEstimation() {
+		return estimation(this.noChangeSum, this.baselineLength);
+	}
+
+	@Override
+	protected double getMajorityClassifierEstimation() {
+		return estimation(this.majoritySum, this.baselineLength);
+	}
 
+	private static double estimation(double sum, int count) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		return sum / count;
 	}
 
 }
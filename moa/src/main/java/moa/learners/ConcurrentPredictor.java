@@ -0,0 +1,31 @@
+/*
+ *    ConcurrentPredictor.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.learners;
+
+/**
+ * Marker interface of the learners that do not modify their state while predicting, so that
+ * the instances waiting for their true labels can be re-predicted concurrently. It is used only
+ * by RepredictionSweep, which requires the class of the learner to declare it itself, as a subclass
+ * overriding the predictions may no longer be safe
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public interface ConcurrentPredictor {
+
+}
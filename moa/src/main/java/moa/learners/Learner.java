@@ -19,6 +19,8 @@
  */
 package moa.learners;
 
+import java.util.List;
+
 import moa.MOAObject;
 import moa.core.Example;
 
@@ -95,6 +97,25 @@ public interface Learner<E extends Example> extends MOAObject, OptionHandler, AW
      */
     public double[] getVotesForInstance(E example);
 
+    /**
+     * Predicts the class memberships for a batch of instances, using the
+     * same model state for all of them. Learners able to share work
+     * between the instances of a batch may override this method, the
+     * result must be the same as calling getVotesForInstance for each
+     * instance in turn.
+     *
+     * @param examples the instances to be classified
+     * @return an array containing the votes for each instance, in the
+     * order of the examples
+     */
+    public default double[][] getVotesForInstances(List<E> examples) {
+        double[][] votes = new double[examples.size()][];
+        for (int i = 0; i < votes.length; i++) {
+            votes[i] = getVotesForInstance(examples.get(i));
+        }
+        return votes;
+    }
+
     /**
      * Gets the current measurements of this learner.
      *
@@ -20,10 +20,12 @@
 package moa.streams;
 
 import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instances;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -46,7 +48,7 @@ import moa.tasks.TaskMonitor;
  * @version $Revision: 7 $
  */
 public class ArffFileStream extends AbstractOptionHandler implements
-        InstanceStream, ConceptDriftGenerator {
+        InstanceStream, ConceptDriftGenerator, Closeable {
 
     @Override
     public String getPurposeString() {
@@ -64,10 +66,16 @@ public class ArffFileStream extends AbstractOptionHandler implements
             "Class index of data. 0 for none or -1 for last attribute in file.",
             -1, -1, Integer.MAX_VALUE);
 
+    public FlagOption byteParserOption = new FlagOption("byteParser", 'b',
+            "Parse the data directly from bytes rather than with StreamTokenizer, faster for large dense files.");
+
     protected Instances instances;
 
     protected Reader fileReader;
 
+    // the stream parsed with the byte parser, null if the file is read with fileReader
+    protected InputStream byteFileStream;
+
     protected boolean hitEndOfFile;
 
     protected InstanceExample lastInstanceRead;
@@ -128,13 +136,23 @@ public class ArffFileStream extends AbstractOptionHandler implements
             if (this.fileReader != null) {
                 this.fileReader.close();
             }
+            if (this.byteFileStream != null) {
+                this.byteFileStream.close();
+                this.byteFileStream = null;
+            }
             InputStream fileStream = new FileInputStream(this.arffFileOption.getFile());
             this.fileProgressMonitor = new InputStreamProgressMonitor(
                     fileStream);
-            this.fileReader = new BufferedReader(new InputStreamReader(
-                    this.fileProgressMonitor));
             int classIndex = this.classIndexOption.getValue();
-            this.instances = new Instances(this.fileReader, 1, classIndex);
+            if (this.byteParserOption.isSet()) {
+                this.fileReader = null;
+                this.byteFileStream = this.fileProgressMonitor;
+                this.instances = new Instances(this.byteFileStream, classIndex);
+            } else {
+                this.fileReader = new BufferedReader(new InputStreamReader(
+                        this.fileProgressMonitor));
+                this.instances = new Instances(this.fileReader, 1, classIndex);
+            }
             if (classIndex < 0) {
 		this.instances.setClassIndex(this.instances.numAttributes() - 1);
             } else if (this.classIndexOption.getValue() > 0) {
@@ -149,6 +167,20 @@ public class ArffFileStream extends AbstractOptionHandler implements
         this.clusterEvents = new ArrayList<ClusterEvent>();
     }
 
+    // closes the file before the end of the stream, e.g. when the task reading it ends on a limit
+    @Override
+    public void close() throws IOException {
+        if (this.fileReader != null) {
+            this.fileReader.close();
+            this.fileReader = null;
+        }
+        if (this.byteFileStream != null) {
+            this.byteFileStream.close();
+            this.byteFileStream = null;
+        }
+        this.hitEndOfFile = true;
+    }
+
     protected boolean readNextInstanceFromFile() {
         try {
             if (this.instances.readInstance(this.fileReader)) {
@@ -161,6 +193,10 @@ public class ArffFileStream extends AbstractOptionHandler implements
                 this.fileReader.close();
                 this.fileReader = null;
             }
+            if (this.byteFileStream != null) {
+                this.byteFileStream.close();
+                this.byteFileStream = null;
+            }
             return false;
         } catch (IOException ioe) {
             throw new RuntimeException(
@@ -0,0 +1,202 @@
+/*
+ *    BinaryInstanceFileStream.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+import com.github.javacliparser.FileOption;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.core.InstanceExample;
+import moa.core.ObjectRepository;
+import moa.options.AbstractOptionHandler;
+import moa.tasks.TaskMonitor;
+
+/**
+ * Stream of instances read from a binary file written by WriteStreamToBinaryFile.
+ * The records are memory-mapped, so that no text is parsed and restarting the stream only resets
+ * the index of the next record. The file consists of:
+ * - a header of little-endian values: int magic number, int version, int number of attributes,
+ * int reserved, long number of instances, long offset of the serialized InstancesHeader,
+ * - fixed-width records starting at the offset DATA_OFFSET, each made of the value of every attribute
+ * including the class as a little-endian double, NaN for missing values, followed by the weight
+ * as a double and the instance id and time stamp as longs,
+ * - the InstancesHeader serialized with Java serialization, written after the records, so that it includes
+ * the nominal values added while the stream was written.
+ * Instances are always read as dense instances
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class BinaryInstanceFileStream extends AbstractOptionHandler implements InstanceStream {
+
+    @Override
+    public String getPurposeString() {
+        return "A stream read from a binary instance file written by WriteStreamToBinaryFile.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int MAGIC = 0x4d4f4149;
+
+    public static final int VERSION = 1;
+
+    public static final int DATA_OFFSET = 32;
+
+    public FileOption binaryFileOption = new FileOption("binaryFile", 'f',
+            "Binary instance file to load.", null, "bin", false);
+
+    protected transient RandomAccessFile randomAccessFile;
+
+    protected InstancesHeader header;
+
+    protected int numAttributes;
+
+    protected long numInstances;
+
+    // the number of the next instance to read
+    protected long nextInstanceIndex;
+
+    // the records are mapped in segments of whole records, so that files larger than 2GB can be mapped
+    protected int segmentInstances;
+
+    protected transient DoubleBuffer[] valueSegments;
+
+    protected transient LongBuffer[] longSegments;
+
+    public BinaryInstanceFileStream() {
+    }
+
+    public BinaryInstanceFileStream(String binaryFileName) {
+        this.binaryFileOption.setValue(binaryFileName);
+        open();
+    }
+
+    @Override
+    public void prepareForUseImpl(TaskMonitor monitor,
+            ObjectRepository repository) {
+        open();
+    }
+
+    protected void open() {
+        try {
+            if (this.randomAccessFile != null) {
+                this.randomAccessFile.close();
+            }
+            this.randomAccessFile = new RandomAccessFile(this.binaryFileOption.getFile(), "r");
+            FileChannel channel = this.randomAccessFile.getChannel();
+            ByteBuffer fileHeader = channel.map(FileChannel.MapMode.READ_ONLY, 0, DATA_OFFSET)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (fileHeader.getInt() != MAGIC || fileHeader.getInt() != VERSION) {
+                throw new RuntimeException("Not a binary instance file: " + this.binaryFileOption.getFile());
+            }
+            this.numAttributes = fileHeader.getInt();
+            fileHeader.getInt();
+            this.numInstances = fileHeader.getLong();
+            long headerOffset = fileHeader.getLong();
+            if (headerOffset == 0) {
+                throw new RuntimeException("Incomplete binary instance file: " + this.binaryFileOption.getFile());
+            }
+
+            // the InstancesHeader follows the records
+            ByteBuffer headerBytes = ByteBuffer.allocate((int) (channel.size() - headerOffset));
+            while (headerBytes.hasRemaining()) {
+                if (channel.read(headerBytes, headerOffset + headerBytes.position()) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(headerBytes.array()));
+            this.header = (InstancesHeader) in.readObject();
+            in.close();
+
+            long recordSize = 8L * (this.numAttributes + 3);
+            this.segmentInstances = (int) (Integer.MAX_VALUE / recordSize);
+            int numSegments = (int) ((this.numInstances + this.segmentInstances - 1) / this.segmentInstances);
+            this.valueSegments = new DoubleBuffer[numSegments];
+            this.longSegments = new LongBuffer[numSegments];
+            for (int i = 0; i < numSegments; i++) {
+                long instances = Math.min(this.segmentInstances, this.numInstances - (long) i * this.segmentInstances);
+                ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                        DATA_OFFSET + (long) i * this.segmentInstances * recordSize, instances * recordSize)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                this.valueSegments[i] = segment.asDoubleBuffer();
+                this.longSegments[i] = segment.asLongBuffer();
+            }
+        } catch (IOException | ClassNotFoundException ex) {
+            throw new RuntimeException("Unable to read binary instance file: " + this.binaryFileOption.getFile(), ex);
+        }
+        restart();
+    }
+
+    @Override
+    public InstancesHeader getHeader() {
+        return this.header;
+    }
+
+    @Override
+    public long estimatedRemainingInstances() {
+        return this.numInstances - this.nextInstanceIndex;
+    }
+
+    @Override
+    public boolean hasMoreInstances() {
+        return this.nextInstanceIndex < this.numInstances;
+    }
+
+    @Override
+    public InstanceExample nextInstance() {
+        int segment = (int) (this.nextInstanceIndex / this.segmentInstances);
+        int offset = (int) (this.nextInstanceIndex % this.segmentInstances) * (this.numAttributes + 3);
+        this.nextInstanceIndex++;
+
+        double[] values = new double[this.numAttributes];
+        DoubleBuffer valueSegment = this.valueSegments[segment];
+        ((Buffer) valueSegment).position(offset);
+        valueSegment.get(values);
+        Instance instance = new DenseInstance(valueSegment.get(), values);
+        instance.setInstanceId(this.longSegments[segment].get(offset + this.numAttributes + 1));
+        instance.setInstanceTimeStamp(this.longSegments[segment].get(offset + this.numAttributes + 2));
+        instance.setDataset(this.header);
+        return new InstanceExample(instance);
+    }
+
+    @Override
+    public boolean isRestartable() {
+        return true;
+    }
+
+    @Override
+    public void restart() {
+        this.nextInstanceIndex = 0;
+    }
+
+    @Override
+    public void getDescription(StringBuilder sb, int indent) {
+    }
+}
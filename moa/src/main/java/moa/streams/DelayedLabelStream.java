@@ -0,0 +1,226 @@
+/*
+ *    DelayedLabelStream.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams;
+
+import java.io.Serializable;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.github.javacliparser.FloatOption;
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.core.Example;
+import moa.core.InstanceExample;
+import moa.core.ObjectRepository;
+import moa.options.AbstractOptionHandler;
+import moa.options.ClassOption;
+import moa.tasks.TaskMonitor;
+
+/**
+ * Stream that turns any stream, such as a generator, into a stream with delayed labels, in the same
+ * form as the ARFF files used for continuous re-evaluation. Every instance of the wrapped stream arrives twice:
+ * first without its class value, with the next instance id and a time stamp increasing by timeStep,
+ * later with its class value, the same instance id and the time stamp its label arrives at.
+ * The delay of a label is fixed, drawn from an exponential or a heavy-tailed Lomax (Pareto type II)
+ * distribution of the given mean, or read from an attribute of the instance. Instances with a missing or
+ * negative delay read from an attribute are never labelled. The labels waiting to arrive are kept in a queue
+ * ordered by their time stamps, so that only the instances waiting for their labels are held in memory.
+ * A label arriving at the time stamp of a new instance is emitted before that instance
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class DelayedLabelStream extends AbstractOptionHandler implements ExampleStream<Example<Instance>> {
+
+    @Override
+    public String getPurposeString() {
+        return "A stream of unlabelled instances followed by their labels after a delay.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    public ClassOption streamOption = new ClassOption("stream", 's',
+            "Stream to delay the labels of.", ExampleStream.class,
+            "generators.RandomTreeGenerator");
+
+    public MultiChoiceOption delayDistributionOption = new MultiChoiceOption(
+            "delayDistribution", 'd', "Distribution of the label delays.", new String[]{
+            "Fixed", "Exponential", "Lomax", "Attribute"},
+            new String[]{"Every label is delayed by the mean delay",
+                    "Exponential distribution with the mean delay",
+                    "Heavy-tailed Lomax (Pareto type II) distribution with the mean delay and the shape",
+                    "The delay is the value of the delay attribute"}, 0);
+
+    public FloatOption meanDelayOption = new FloatOption("meanDelay", 'l',
+            "The mean delay of the labels in time stamp units.", 10.0, 0.0, Double.MAX_VALUE);
+
+    public FloatOption shapeOption = new FloatOption("shape", 'k',
+            "The shape of the Lomax distribution, the lower the heavier its tail.", 2.0, 1.01, Double.MAX_VALUE);
+
+    public IntOption delayAttributeOption = new IntOption("delayAttribute", 'a',
+            "The attribute (1-based) holding the delay of the label.", 1, 1, Integer.MAX_VALUE);
+
+    public IntOption timeStepOption = new IntOption("timeStep", 't',
+            "The time stamp increase between consecutive instances of the wrapped stream.", 1, 1, Integer.MAX_VALUE);
+
+    public IntOption randomSeedOption = new IntOption("randomSeed", 'r',
+            "Seed for random generation of the delays.", 1);
+
+    // a label waiting to arrive, ordered by its time stamp and then by the instance id
+    protected static class PendingLabel implements Comparable<PendingLabel>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        protected long labelTimeStamp;
+
+        protected long instanceId;
+
+        protected Instance instance;
+
+        public PendingLabel(long labelTimeStamp, long instanceId, Instance instance) {
+            this.labelTimeStamp = labelTimeStamp;
+            this.instanceId = instanceId;
+            this.instance = instance;
+        }
+
+        @Override
+        public int compareTo(PendingLabel other) {
+            if (this.labelTimeStamp != other.labelTimeStamp) {
+                return (this.labelTimeStamp < other.labelTimeStamp) ? -1 : 1;
+            }
+            return Long.compare(this.instanceId, other.instanceId);
+        }
+    }
+
+    protected ExampleStream<Example<Instance>> stream;
+
+    protected PriorityQueue<PendingLabel> pendingLabels;
+
+    protected Random delayRandom;
+
+    // the id of the next instance of the wrapped stream, also the number of instances read from it
+    protected long nextInstanceId;
+
+    // the number of instances read from the wrapped stream whose labels arrive
+    protected long numLabelledInstances;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void prepareForUseImpl(TaskMonitor monitor,
+            ObjectRepository repository) {
+        this.stream = (ExampleStream<Example<Instance>>) getPreparedClassOption(this.streamOption);
+        this.pendingLabels = new PriorityQueue<PendingLabel>();
+        initialize();
+    }
+
+    private void initialize() {
+        this.pendingLabels.clear();
+        this.delayRandom = new Random(this.randomSeedOption.getValue());
+        this.nextInstanceId = 0;
+        this.numLabelledInstances = 0;
+    }
+
+    // get the delay of the label of an instance or -1 if it is never labelled
+    protected long nextDelay(Instance instance) {
+        double meanDelay = this.meanDelayOption.getValue();
+        switch (this.delayDistributionOption.getChosenIndex()) {
+            case 1:
+                return Math.round(-meanDelay * Math.log(1.0 - this.delayRandom.nextDouble()));
+            case 2:
+                double shape = this.shapeOption.getValue();
+                double scale = meanDelay * (shape - 1.0);
+                return Math.round(scale * (Math.pow(1.0 - this.delayRandom.nextDouble(), -1.0 / shape) - 1.0));
+            case 3:
+                int delayAttribute = this.delayAttributeOption.getValue() - 1;
+                if (instance.isMissing(delayAttribute) || instance.value(delayAttribute) < 0) {
+                    return -1;
+                }
+                return Math.round(instance.value(delayAttribute));
+            default:
+                return Math.round(meanDelay);
+        }
+    }
+
+    @Override
+    public InstancesHeader getHeader() {
+        return this.stream.getHeader();
+    }
+
+    @Override
+    public long estimatedRemainingInstances() {
+        long remaining = this.stream.estimatedRemainingInstances();
+        if (remaining < 0) {
+            return remaining;
+        }
+        // the remaining instances are expected to be labelled as often as the instances read so far
+        double labelledFraction = (this.nextInstanceId == 0) ? 1.0
+                : (double) this.numLabelledInstances / this.nextInstanceId;
+        return remaining + Math.round(labelledFraction * remaining) + this.pendingLabels.size();
+    }
+
+    @Override
+    public boolean hasMoreInstances() {
+        return !this.pendingLabels.isEmpty() || this.stream.hasMoreInstances();
+    }
+
+    @Override
+    public Example<Instance> nextInstance() {
+        long timeStamp = this.nextInstanceId * this.timeStepOption.getValue();
+        // the labels due before the next instance arrive first
+        if (!this.pendingLabels.isEmpty()
+                && (this.pendingLabels.peek().labelTimeStamp <= timeStamp || !this.stream.hasMoreInstances())) {
+            return new InstanceExample(this.pendingLabels.poll().instance);
+        }
+        if (!this.stream.hasMoreInstances()) {
+            return null;
+        }
+
+        Instance instance = this.stream.nextInstance().getData();
+        long instanceId = this.nextInstanceId++;
+        instance.setInstanceId(instanceId);
+        instance.setInstanceTimeStamp(timeStamp);
+        Instance unlabelledInstance = instance.copy();
+        unlabelledInstance.setMissing(unlabelledInstance.classIndex());
+
+        long delay = nextDelay(instance);
+        if (delay >= 0) {
+            instance.setInstanceTimeStamp(timeStamp + delay);
+            this.pendingLabels.add(new PendingLabel(timeStamp + delay, instanceId, instance));
+            this.numLabelledInstances++;
+        }
+        return new InstanceExample(unlabelledInstance);
+    }
+
+    @Override
+    public boolean isRestartable() {
+        return this.stream.isRestartable();
+    }
+
+    @Override
+    public void restart() {
+        this.stream.restart();
+        initialize();
+    }
+
+    @Override
+    public void getDescription(StringBuilder sb, int indent) {
+    }
+}
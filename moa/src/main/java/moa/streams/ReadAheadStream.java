@@ -0,0 +1,290 @@
+/*
+ *    ReadAheadStream.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.github.javacliparser.IntOption;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.core.Example;
+import moa.core.ObjectRepository;
+import moa.core.StringUtils;
+import moa.options.AbstractOptionHandler;
+import moa.options.ClassOption;
+import moa.tasks.TaskMonitor;
+
+/**
+ * Stream that reads the instances of another stream ahead on a separate thread, so that reading and
+ * parsing the stream does not add to the time of the evaluation. The instances are handed over
+ * in their order through a preallocated ring buffer of the given depth, the reading thread waits
+ * while the buffer is full and the evaluation waits while it is empty. hasMoreInstances waits until
+ * the next instance is read or the stream has ended, hence it returns the same as for the wrapped stream.
+ * restart stops the reading thread, restarts the wrapped stream and starts reading it again.
+ * close stops the reading thread and closes the wrapped stream, it is called by the task preparing
+ * the stream when the task ends, hence the stream should be the stream of the task rather than
+ * a stream wrapped in another one.
+ * The wrapped stream is used by the reading thread only, apart from getHeader, so streams extending
+ * their header while being read, e.g. with nominal values not declared in an ARFF file,
+ * should be wrapped only if such values are not expected
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class ReadAheadStream extends AbstractOptionHandler implements ExampleStream<Example<Instance>>, Closeable {
+
+    @Override
+    public String getPurposeString() {
+        return "A stream read ahead on a separate thread.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    public ClassOption streamOption = new ClassOption("stream", 's',
+            "Stream to read ahead.", ExampleStream.class,
+            "generators.RandomTreeGenerator");
+
+    public IntOption depthOption = new IntOption("depth", 'd',
+            "The maximum number of instances read ahead.", 1024, 1, Integer.MAX_VALUE);
+
+    protected ExampleStream<Example<Instance>> stream;
+
+    private transient Object[] slots;
+
+    // the number of instances taken from the buffer and put into it, the buffer is full
+    // if they differ by the length of the buffer
+    private transient AtomicLong taken;
+
+    private transient AtomicLong put;
+
+    private transient Thread readingThread;
+
+    // the threads parked while the buffer is full and while it is empty, each set by its own thread only
+    private transient volatile Thread waitingReader;
+
+    private transient volatile Thread waitingConsumer;
+
+    private transient volatile boolean endOfStream;
+
+    private transient volatile boolean stopRequested;
+
+    private transient volatile Throwable failure;
+
+    // the estimate of the wrapped stream after the last instance read, stored by the reading thread
+    private transient volatile long remainingInstancesEstimate;
+
+    // back-pressure statistics: the number of times and the time in nanoseconds the reading thread
+    // waited for a free slot and the evaluation waited for an instance
+    private transient volatile long readerWaits;
+
+    private transient volatile long readerWaitTime;
+
+    private transient volatile long consumerWaits;
+
+    private transient volatile long consumerWaitTime;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void prepareForUseImpl(TaskMonitor monitor,
+            ObjectRepository repository) {
+        this.stream = (ExampleStream<Example<Instance>>) getPreparedClassOption(this.streamOption);
+        startReading();
+    }
+
+    private void startReading() {
+        this.slots = new Object[this.depthOption.getValue()];
+        this.taken = new AtomicLong();
+        this.put = new AtomicLong();
+        this.endOfStream = false;
+        this.stopRequested = false;
+        this.failure = null;
+        this.remainingInstancesEstimate = this.stream.estimatedRemainingInstances();
+        this.readingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        }, "read ahead: " + this.stream.getClass().getSimpleName());
+        this.readingThread.setDaemon(true);
+        this.readingThread.start();
+    }
+
+    private void stopReading() {
+        if (this.readingThread == null) {
+            return;
+        }
+        this.stopRequested = true;
+        LockSupport.unpark(this.readingThread);
+        try {
+            this.readingThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while stopping the reading thread", ex);
+        }
+        this.readingThread = null;
+    }
+
+    // run by the reading thread
+    private void read() {
+        try {
+            while (!this.stopRequested && this.stream.hasMoreInstances()) {
+                Example<Instance> example = this.stream.nextInstance();
+                this.remainingInstancesEstimate = this.stream.estimatedRemainingInstances();
+                long index = this.put.get();
+                if (index - this.taken.get() == this.slots.length) {
+                    long waitStartTime = System.nanoTime();
+                    this.readerWaits++;
+                    this.waitingReader = Thread.currentThread();
+                    while (index - this.taken.get() == this.slots.length && !this.stopRequested) {
+                        LockSupport.park(this);
+                    }
+                    this.waitingReader = null;
+                    this.readerWaitTime += System.nanoTime() - waitStartTime;
+                    if (this.stopRequested) {
+                        return;
+                    }
+                }
+                this.slots[(int) (index % this.slots.length)] = example;
+                this.put.set(index + 1);
+                unpark(this.waitingConsumer);
+            }
+        } catch (Throwable ex) {
+            this.failure = ex;
+        } finally {
+            this.endOfStream = true;
+            unpark(this.waitingConsumer);
+        }
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // wait until the next instance is in the buffer or the stream has ended, returns false if it has ended
+    private boolean awaitInstance() {
+        long index = this.taken.get();
+        if (index < this.put.get()) {
+            return true;
+        }
+        long waitStartTime = System.nanoTime();
+        this.consumerWaits++;
+        this.waitingConsumer = Thread.currentThread();
+        while (index == this.put.get() && !this.endOfStream) {
+            LockSupport.park(this);
+        }
+        this.waitingConsumer = null;
+        this.consumerWaitTime += System.nanoTime() - waitStartTime;
+        if (index < this.put.get()) {
+            return true;
+        }
+        if (this.failure != null) {
+            throw new RuntimeException("Unable to read the stream ahead", this.failure);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean hasMoreInstances() {
+        return awaitInstance();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Example<Instance> nextInstance() {
+        if (!awaitInstance()) {
+            return null;
+        }
+        long index = this.taken.get();
+        int slot = (int) (index % this.slots.length);
+        Example<Instance> example = (Example<Instance>) this.slots[slot];
+        this.slots[slot] = null;
+        this.taken.set(index + 1);
+        unpark(this.waitingReader);
+        return example;
+    }
+
+    @Override
+    public long estimatedRemainingInstances() {
+        // the wrapped stream is not asked while it is being read
+        long remaining = this.remainingInstancesEstimate;
+        return (remaining < 0) ? remaining : remaining + (this.put.get() - this.taken.get());
+    }
+
+    @Override
+    public InstancesHeader getHeader() {
+        return this.stream.getHeader();
+    }
+
+    @Override
+    public boolean isRestartable() {
+        return this.stream.isRestartable();
+    }
+
+    @Override
+    public void restart() {
+        stopReading();
+        this.stream.restart();
+        startReading();
+    }
+
+    @Override
+    public void close() throws IOException {
+        stopReading();
+        // the instances read ahead are dropped, the stream has ended for the evaluation
+        if (this.slots != null) {
+            Arrays.fill(this.slots, null);
+            this.taken.set(this.put.get());
+        }
+        if (this.stream instanceof Closeable) {
+            ((Closeable) this.stream).close();
+        }
+    }
+
+    public long getReaderWaits() {
+        return this.readerWaits;
+    }
+
+    public double getReaderWaitSeconds() {
+        return this.readerWaitTime / 1e9;
+    }
+
+    public long getConsumerWaits() {
+        return this.consumerWaits;
+    }
+
+    public double getConsumerWaitSeconds() {
+        return this.consumerWaitTime / 1e9;
+    }
+
+    @Override
+    public void getDescription(StringBuilder sb, int indent) {
+        StringUtils.appendIndented(sb, indent, "Reader waits for free slots: " + getReaderWaits()
+                + " (" + getReaderWaitSeconds() + " s)");
+        StringUtils.appendNewline(sb);
+        StringUtils.appendIndented(sb, indent, "Evaluation waits for instances: " + getConsumerWaits()
+                + " (" + getConsumerWaitSeconds() + " s)");
+        StringUtils.appendNewline(sb);
+    }
+}
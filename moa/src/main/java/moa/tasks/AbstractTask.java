@@ -19,8 +19,14 @@
  */
 package moa.tasks;
 
+import java.io.Closeable;
+import java.io.IOException;
+
 import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
+import moa.options.ClassOption;
+
+import com.github.javacliparser.Option;
 
 /**
  * Abstract Task. All runnable tasks in MOA extend this class.
@@ -53,11 +59,34 @@ public abstract class AbstractTask extends AbstractOptionHandler implements
         if (monitor.taskShouldAbort()) {
             return null;
         }
-        monitor.setCurrentActivity("Doing task " + getTaskName() + "...", -1.0);
-        Object result = doTaskImpl(monitor, repository);
-        monitor.setCurrentActivity("Task " + getTaskName() + " complete.", 1.0);
-        //this.classOptionNamesToPreparedObjects = null; // clean up refs
-        return result;
+        try {
+            monitor.setCurrentActivity("Doing task " + getTaskName() + "...", -1.0);
+            Object result = doTaskImpl(monitor, repository);
+            monitor.setCurrentActivity("Task " + getTaskName() + " complete.", 1.0);
+            //this.classOptionNamesToPreparedObjects = null; // clean up refs
+            return result;
+        } finally {
+            closePreparedClassOptions();
+        }
+    }
+
+    /**
+     * Closes the objects prepared for the class options of this task that hold threads or files,
+     * such as a ReadAheadStream, whether the task completed, was aborted or failed.
+     */
+    protected void closePreparedClassOptions() {
+        for (Option option : getOptions().getOptionArray()) {
+            if (option instanceof ClassOption) {
+                Object preparedObject = getPreparedClassOption((ClassOption) option);
+                if (preparedObject instanceof Closeable) {
+                    try {
+                        ((Closeable) preparedObject).close();
+                    } catch (IOException ex) {
+                        System.err.println("[WARNING] Unable to close " + option.getName() + ": " + ex);
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -23,6 +23,9 @@ package moa.tasks;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import moa.classifiers.Classifier;
 import moa.classifiers.MultiClassClassifier;
@@ -31,6 +34,8 @@ import moa.core.Measurement;
 import moa.core.ObjectRepository;
 import moa.core.TimingUtils;
 import moa.evaluation.WindowClassificationPerformanceEvaluator;
+import moa.evaluation.BasicClassificationPerformanceEvaluator;
+import moa.evaluation.BinaryLearningCurveWriter;
 import moa.evaluation.BinnedPerformanceEvaluator;
 import moa.evaluation.EWMAClassificationPerformanceEvaluator;
 import moa.evaluation.FadingFactorClassificationPerformanceEvaluator;
@@ -39,11 +44,21 @@ import moa.evaluation.InstancesInProgress;
 import moa.evaluation.LearningCurve;
 import moa.evaluation.LearningEvaluation;
 import moa.evaluation.LearningPerformanceEvaluator;
+import moa.evaluation.ModelSizeEstimator;
+import moa.evaluation.MultiBinClassificationPerformanceEvaluator;
 import moa.evaluation.PredictionItem;
+import moa.evaluation.PhaseTimer;
+import moa.evaluation.PredictionWriter;
+import moa.evaluation.EvaluationCheckpoint;
+import moa.evaluation.EvaluationMetrics;
+import moa.evaluation.RepredictionSweep;
+import moa.evaluation.SpillingInstancesInProgress;
+import moa.evaluation.VotesBuffer;
 import moa.learners.Learner;
 import moa.options.ClassOption;
 
 import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 import moa.streams.ExampleStream;
@@ -68,7 +83,29 @@ public class EvaluatePrequential extends ClassificationMainTask {
 
 	private static final long serialVersionUID = 1L;
 
-	private InstancesInProgress instancesInProgress = new InstancesInProgress();
+	private InstancesInProgress instancesInProgress;
+
+	private transient RepredictionSweep repredictionSweep;
+
+	// the outputs of a run, closed when the run ends, also if it fails
+	private transient PrintStream immediateResultStream;
+
+	private transient PrintStream immediateBinResultStream;
+
+	private transient BinaryLearningCurveWriter binaryResultWriter;
+
+	private transient BinaryLearningCurveWriter binaryBinResultWriter;
+
+	private transient PredictionWriter outputPredictionWriter;
+
+	private transient PredictionWriter repredictionWriter;
+
+	private transient EvaluationMetrics metrics;
+
+	private transient PhaseTimer phaseTimer;
+
+	// arrays reused to pass votes of buffered predictions to bin evaluators
+	private VotesBuffer votesBuffer;
 
 	private BinnedPerformanceEvaluator<Example<Instance>>[] binEvaluators;
 	
@@ -92,7 +129,7 @@ public class EvaluatePrequential extends ClassificationMainTask {
 			"How many instances between samples of the learning performance.", 100000, 0, Integer.MAX_VALUE);
 
 	public IntOption memCheckFrequencyOption = new IntOption("memCheckFrequency", 'q',
-			"How many instances between memory bound checks.", 100000, 0, Integer.MAX_VALUE);
+			"How many instances between exact measurements of the model size, estimated in between (0 = measure at every sample).", 0, 0, Integer.MAX_VALUE);
 
 	public FileOption dumpFileOption = new FileOption("dumpFile", 'd', "File to append intermediate csv results to.",
 			null, "csv", true);
@@ -100,6 +137,20 @@ public class EvaluatePrequential extends ClassificationMainTask {
 	public FileOption outputPredictionFileOption = new FileOption("outputPredictionFile", 'o',
 			"File to append output predictions to.", null, "pred", true);
 
+	public FileOption outputRepredictionFileOption = new FileOption("outputRepredictionFile", 'P',
+			"File to append the predictions made for instances waiting for their true labels to, i.e. first predictions, re-predictions and final predictions, with their types and time stamps.",
+			null, "pred", true);
+
+	public FileOption metricsFileOption = new FileOption("metricsFile", 'm',
+			"File live metrics of the evaluation, e.g. throughput, latencies and the number of instances waiting for their true labels, are periodically written to as JSON.",
+			null, "json", true);
+
+	public IntOption metricsIntervalOption = new IntOption("metricsInterval", 'I',
+			"How many milliseconds between writing live metrics.", 1000, 1, Integer.MAX_VALUE);
+
+	public FlagOption phaseTimingOption = new FlagOption("phaseTiming", 'T',
+			"Measure the CPU time of the phases of the evaluation, i.e. predictions, re-predictions, mapping predictions to bins, evaluator updates, training and output, and add it to the learning curve.");
+
 	// New for prequential method DEPRECATED
 	public IntOption widthOption = new IntOption("width", 'w', "Size of Window", 1000);
 
@@ -113,77 +164,153 @@ public class EvaluatePrequential extends ClassificationMainTask {
 	public IntOption predictionFrequencyOption = new IntOption("predictionFrequency", 'K',
 			"How many new labelled instances have to occur to trigger re-prediction", 10, 1, Integer.MAX_VALUE);
 
+	public IntOption repredictionJobsOption = new IntOption("repredictionJobs", 'j',
+			"Number of threads re-predicting instances waiting for their true labels (-1 = all processors, 1 = sequential). Learners not known to support concurrent predictions are re-predicted sequentially.",
+			1, -1, Integer.MAX_VALUE);
+
+	public IntOption expectedLabelDelayOption = new IntOption("expectedLabelDelay", 'L',
+			"Expected time between the arrival of an instance and its true label, used to set bin boundaries when the instance arrives, so that predictions are mapped to bins as they are made (-1 = bins set when the true label arrives).",
+			-1, -1, Integer.MAX_VALUE);
+
+	public IntOption labelDeadlineAttributeOption = new IntOption("labelDeadlineAttribute", 'D',
+			"Index of the attribute containing the time stamp the true label is expected at, used instead of expected label delay (0 = none).",
+			0, 0, Integer.MAX_VALUE);
+
+	public IntOption bufferHeapBudgetOption = new IntOption("bufferHeapBudget", 'M',
+			"Heap size (MB) available to instances waiting for their true labels, the instances exceeding it are spilled to a memory-mapped file (-1 = no limit).",
+			-1, -1, Integer.MAX_VALUE);
+
+	public FileOption bufferSpillFileOption = new FileOption("bufferSpillFile", 'S',
+			"File the instances waiting for their true labels are spilled to when heap budget is exceeded, it must not exist or be empty unless the run is resumed from a checkpoint (default: temporary file).",
+			null, "spill", true);
+
+	public FileOption checkpointFileOption = new FileOption("checkpointFile", 'C',
+			"File the state of the evaluation is periodically written to, so that it can be resumed.", null, "ckpt", true);
+
+	public IntOption checkpointFrequencyOption = new IntOption("checkpointFrequency", 'F',
+			"How many instances between checkpoints (0 = no checkpoints).", 0, 0, Integer.MAX_VALUE);
+
+	public FlagOption resumeOption = new FlagOption("resume", 'R',
+			"Resume the evaluation from the checkpoint file, if it exists. The stream is restarted and the instances processed before the checkpoint are skipped.");
+
+	public FlagOption storeWinningClassOnlyOption = new FlagOption("storeWinningClassOnly", 'W',
+			"Keep only the winning class of the predictions made for instances waiting for their true labels. Use with evaluators considering predicted class only.");
+
+	public FlagOption shareBinEvaluatorOption = new FlagOption("shareBinEvaluator", 'H',
+			"Evaluate all bins with one evaluator keeping the statistics of all bins, rather than with a copy of the evaluator per bin. Used with basic and window classification evaluators, other evaluators are copied.");
+
+	public FlagOption binaryDumpOption = new FlagOption("binaryDump", 'b',
+			"Write the dump files as binary records of doubles rather than csv. Use ExportBinaryLearningCurve to convert them to csv.");
+
 	@Override
 	public Class<?> getTaskResultType() {
 		return LearningCurve.class;
 	}
 
 	
+	// get the time stamp the true label of an instance is expected at or -1 if it is not known
+	private long getExpectedLabelTimeStamp(Instance instance) {
+		int deadlineAttribute = this.labelDeadlineAttributeOption.getValue();
+		if ((deadlineAttribute > 0) && !instance.isMissing(deadlineAttribute - 1)) {
+			return (long) instance.value(deadlineAttribute - 1);
+		}
+		if (this.expectedLabelDelayOption.getValue() >= 0) {
+			return instance.instanceTimeStamp() + this.expectedLabelDelayOption.getValue();
+		}
+		return -1;
+	}
+
 	private void putResultInBuffer(Example<Instance> example, double[] classVotes, Learner learner,
 			BinnedPerformanceEvaluator<Example<Instance>>[] binEvaluators) {
 
 				
-		int predictionFrequency = this.predictionFrequencyOption.getValue();
-
 		Instance newInstanceFromStream = example.getData();
 
 		// if unlabelled instance arrives, make first time prediction
 		if (newInstanceFromStream.classIsMissing()) {
-			InstanceInProgress item = new InstanceInProgress(example);
+			InstanceInProgress item;
+			long expectedLabelTimeStamp = getExpectedLabelTimeStamp(newInstanceFromStream);
+			if (expectedLabelTimeStamp >= 0) {
+				item = new InstanceInProgress(example, expectedLabelTimeStamp, binEvaluators);
+			} else {
+				item = new InstanceInProgress(example, this.storeWinningClassOnlyOption.isSet());
+			}
 
-			// make and remember first prediction for this instance
-			double[] prediction = learner.getVotesForInstance(example);
-			item.getPredictions().add(new PredictionItem(prediction, newInstanceFromStream.instanceTimeStamp(),
-					PredictionItem.PredictionType.FIRST_PREDICTION));
+			// remember first prediction for this instance, the prediction made by the evaluation
+			// for the same model state is reused
+			double[] prediction = classVotes;
+			item.addPrediction(prediction, newInstanceFromStream.instanceTimeStamp(),
+					PredictionItem.PredictionType.FIRST_PREDICTION);
+			logPrediction(item.getInstanceId(), prediction, newInstanceFromStream.instanceTimeStamp(),
+					PredictionItem.PredictionType.FIRST_PREDICTION);
 
 			instancesInProgress.add(item);
 		} else
 		// i.e. true label has arrived
 		{
 			boolean instancePreviouslyObserved = false;
+			if (metrics != null) {
+				metrics.labelledInstances.increment();
+			}
 			boolean repredictionsMade = false;
 
-			int instanceIndex = 0;
-
-			// iterate over instances waiting for their true labels to generate
-			// new predictions if necessary
-			while (instanceIndex < instancesInProgress.size()) {
-				InstanceInProgress instanceInProgress = instancesInProgress.get(instanceIndex);
-				// no need to poll for new predictions when the label has
-				// already arrived
-				if (instanceInProgress.getInstance().instanceId() == newInstanceFromStream.instanceId()) {
-					instancePreviouslyObserved = true;
-
-					binEvaluators[0].incrementTotalNumberOfRepredictionsForFinishedInstances(instanceInProgress.getPredictions().size()-1);
-					
-					// make final prediction (i.e. test-then train)
-					double[] prediction = learner.getVotesForInstance(example);
-					instanceInProgress.getPredictions().add(new PredictionItem(prediction, newInstanceFromStream.instanceTimeStamp(),
-							PredictionItem.PredictionType.FINAL_PREDICTION));
-					// set true class label that has just arrived
-					instanceInProgress.getInstance().setClassValue(newInstanceFromStream.classValue());
-					instanceInProgress.mapPredictionsToBins(binEvaluators);
-					instancesInProgress.remove(instanceIndex);
-				} else {
-					// for all remaining instances check if the number of updates made to a model is sufficient to justify new repredictions
-					if (instanceInProgress.getInstancesPassed()>0)
-						if (instanceInProgress.getInstancesPassed() % predictionFrequency == 0) {
-						double[] prediction = learner.getVotesForInstance(instanceInProgress.getExample());
-
-						// Output prediction
-						instanceInProgress.getPredictions().add(new PredictionItem(prediction, newInstanceFromStream.instanceTimeStamp(),
-								PredictionItem.PredictionType.REPREDICTION));
+			// find the instance the true label has arrived for
+			InstanceInProgress labelledInstance = instancesInProgress.remove((long) newInstanceFromStream.instanceId());
+			if (labelledInstance != null) {
+				instancePreviouslyObserved = true;
+
+				binEvaluators[0].incrementTotalNumberOfRepredictionsForFinishedInstances(labelledInstance.getPredictionCount()-1);
+
+				// final prediction (i.e. test-then train), the model has not changed since the prediction
+				// made by the evaluation, so it is reused rather than made again
+				double[] prediction = classVotes;
+				labelledInstance.addPrediction(prediction, newInstanceFromStream.instanceTimeStamp(),
+						PredictionItem.PredictionType.FINAL_PREDICTION);
+				logPrediction(labelledInstance.getInstanceId(), prediction, newInstanceFromStream.instanceTimeStamp(),
+						PredictionItem.PredictionType.FINAL_PREDICTION);
+				// set true class label that has just arrived
+				labelledInstance.getInstance().setClassValue(newInstanceFromStream.classValue());
+				long mappingStartTime = (metrics != null) ? System.nanoTime() : 0;
+				enterPhase(PhaseTimer.Phase.BIN_MAPPING);
+				labelledInstance.mapPredictionsToBins(binEvaluators, votesBuffer);
+				enterPhase(PhaseTimer.Phase.OTHER);
+				if (metrics != null) {
+					metrics.binMappingLatency.recordSince(mappingStartTime);
+				}
+			}
 
-						repredictionsMade = true;
-					}
-					instanceInProgress.incrementInstancesPassed();
-					instanceIndex++;
+			// generate new predictions for the instances still waiting for their true labels
+			// for which the number of updates made to a model is sufficient to justify new repredictions
+			// all of them are predicted with one call, as the model is not updated in the meantime
+			ArrayList<InstanceInProgress> dueInstances = instancesInProgress.nextLabelledInstance();
+			if (!dueInstances.isEmpty()) {
+				ArrayList<Example<Instance>> dueExamples = new ArrayList<Example<Instance>>(dueInstances.size());
+				for (InstanceInProgress instanceInProgress : dueInstances) {
+					dueExamples.add(instanceInProgress.getExample());
 				}
-				// the number of repredictions can get larger only because of
-				// receiving new labelled instance
-				if (repredictionsMade) {
-					binEvaluators[0].setPredictionsInBufferCount(instancesInProgress.getRepredictionCount());
+				long repredictionStartTime = (metrics != null) ? System.nanoTime() : 0;
+				enterPhase(PhaseTimer.Phase.REPREDICTION);
+				double[][] predictions = repredictionSweep.getVotesForInstances(learner, dueExamples);
+				enterPhase(PhaseTimer.Phase.OTHER);
+				if (metrics != null) {
+					metrics.repredictLatency.recordSince(repredictionStartTime);
+					metrics.repredictions.add(predictions.length);
+				}
+
+				for (int i = 0; i < predictions.length; i++) {
+					// Output prediction
+					instancesInProgress.addPrediction(dueInstances.get(i), predictions[i],
+							newInstanceFromStream.instanceTimeStamp(), PredictionItem.PredictionType.REPREDICTION);
+					logPrediction(dueInstances.get(i).getInstanceId(), predictions[i],
+							newInstanceFromStream.instanceTimeStamp(), PredictionItem.PredictionType.REPREDICTION);
 				}
+
+				repredictionsMade = true;
+			}
+			// the number of repredictions can get larger only because of
+			// receiving new labelled instance
+			if (repredictionsMade) {
+				binEvaluators[0].setPredictionsInBufferCount(instancesInProgress.getRepredictionCount());
 			}
 
 			binEvaluators[0].setInstancesInBufferCount(instancesInProgress.size());
@@ -193,8 +320,110 @@ public class EvaluatePrequential extends ClassificationMainTask {
 		}
 	}
 
+	// write a prediction made for an instance waiting for its true label to the re-prediction file, if any
+	private void logPrediction(long instanceId, double[] classVotes, long predictionTimeStamp,
+			PredictionItem.PredictionType predictionType) {
+		if (repredictionWriter == null) {
+			return;
+		}
+		repredictionWriter.print(instanceId);
+		repredictionWriter.print(',');
+		repredictionWriter.print(predictionTimeStamp);
+		repredictionWriter.print(',');
+		repredictionWriter.print(predictionType.name());
+		repredictionWriter.print(',');
+		repredictionWriter.print(Utils.maxIndex(classVotes));
+		repredictionWriter.println();
+	}
+
+	private static void closeBinaryWriters(BinaryLearningCurveWriter... writers) {
+		for (BinaryLearningCurveWriter writer : writers) {
+			if (writer != null) {
+				writer.close();
+			}
+		}
+	}
+
+	private static void flushPredictionWriters(PredictionWriter... writers) {
+		for (PredictionWriter writer : writers) {
+			if (writer != null) {
+				writer.flush();
+			}
+		}
+	}
+
+	private static void closePredictionWriters(PredictionWriter... writers) {
+		for (PredictionWriter writer : writers) {
+			if (writer != null) {
+				writer.close();
+			}
+		}
+	}
+
+	// charge the time elapsed since the previous phase to it and enter the given phase, if phases are timed
+	private void enterPhase(PhaseTimer.Phase phase) {
+		if (this.phaseTimer != null) {
+			this.phaseTimer.enter(phase);
+		}
+	}
+
+	private void closeMetrics() {
+		if (this.metrics != null) {
+			this.metrics.close();
+			this.metrics = null;
+		}
+	}
+
+	// the files results are written to by their roles, their lengths are recorded in checkpoints
+	private Map<String, File> getOutputFiles() {
+		Map<String, File> outputFiles = new LinkedHashMap<String, File>();
+		File dumpFile = this.dumpFileOption.getFile();
+		outputFiles.put(EvaluationCheckpoint.DUMP_FILE, dumpFile);
+		outputFiles.put(EvaluationCheckpoint.BIN_DUMP_FILE, (dumpFile == null) ? null : new File(dumpFile + "_bins"));
+		outputFiles.put(EvaluationCheckpoint.PREDICTION_FILE, this.outputPredictionFileOption.getFile());
+		outputFiles.put(EvaluationCheckpoint.REPREDICTION_FILE, this.outputRepredictionFileOption.getFile());
+		return outputFiles;
+	}
+
 	@Override
 	protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
+		try {
+			return evaluate(monitor, repository);
+		} finally {
+			closeRun();
+		}
+	}
+
+	// close the outputs of the run, stop its threads and release its spill file, whether it completed,
+	// was aborted or failed, so that the results written before a failure are kept
+	private void closeRun() {
+		try {
+			if (immediateResultStream != null) {
+				immediateResultStream.close();
+			}
+			if (immediateBinResultStream != null) {
+				immediateBinResultStream.close();
+			}
+			closeBinaryWriters(binaryResultWriter, binaryBinResultWriter);
+			closePredictionWriters(outputPredictionWriter, this.repredictionWriter);
+		} finally {
+			immediateResultStream = null;
+			immediateBinResultStream = null;
+			binaryResultWriter = null;
+			binaryBinResultWriter = null;
+			outputPredictionWriter = null;
+			this.repredictionWriter = null;
+			closeMetrics();
+			if (repredictionSweep != null) {
+				repredictionSweep.shutdown();
+			}
+			if (instancesInProgress != null) {
+				instancesInProgress.close();
+			}
+		}
+	}
+
+	private Object evaluate(TaskMonitor monitor, ObjectRepository repository) {
 		Learner learner = (Learner) getPreparedClassOption(this.learnerOption);
 		ExampleStream stream = (ExampleStream) getPreparedClassOption(this.streamOption);
 
@@ -202,6 +431,7 @@ public class EvaluatePrequential extends ClassificationMainTask {
 				this.evaluatorOption);
 		LearningCurve learningCurve = new LearningCurve("learning evaluation instances");
 		LearningCurve learningBinCurve = new LearningCurve("learning evaluation instances");
+		ModelSizeEstimator modelSizeEstimator = new ModelSizeEstimator(this.memCheckFrequencyOption.getValue());
 
 		// New for prequential methods
 		if (evaluator instanceof WindowClassificationPerformanceEvaluator) {
@@ -245,14 +475,44 @@ public class EvaluatePrequential extends ClassificationMainTask {
 		// for test-then-train
 			
 		binEvaluators=new BinnedPerformanceEvaluator[binCount + 2];
+		File checkpointFile = this.checkpointFileOption.getFile();
+		boolean resume = this.resumeOption.isSet() && (checkpointFile != null) && checkpointFile.exists();
+		// the spill file of an interrupted run is reused, its instances are restored from the checkpoint
+		if (this.bufferHeapBudgetOption.getValue() >= 0) {
+			instancesInProgress = new SpillingInstancesInProgress(this.predictionFrequencyOption.getValue(),
+					this.bufferHeapBudgetOption.getValue() * 1024L * 1024L, this.bufferSpillFileOption.getFile(),
+					resume);
+		} else {
+			instancesInProgress = new InstancesInProgress(this.predictionFrequencyOption.getValue());
+		}
+		repredictionSweep = new RepredictionSweep(this.repredictionJobsOption.getValue(), learner);
+		votesBuffer = new VotesBuffer();
+
+		// restore the state of an interrupted run, the results written after the checkpoint are removed
+		EvaluationCheckpoint checkpoint = null;
+		if (resume) {
+			checkpoint = new EvaluationCheckpoint();
+			checkpoint.instancesInProgress = instancesInProgress;
+			checkpoint.learningCurve = learningCurve;
+			checkpoint.learningBinCurve = learningBinCurve;
+			checkpoint.modelSizeEstimator = modelSizeEstimator;
+			checkpoint.readFromFile(checkpointFile);
+			learner = checkpoint.learner;
+			evaluator = checkpoint.evaluator;
+			binEvaluators = checkpoint.binEvaluators;
+			instancesProcessed = checkpoint.instancesProcessed;
+			checkpoint.truncateOutputFiles(getOutputFiles());
+			for (long i = 0; (i < instancesProcessed) && stream.hasMoreInstances(); i++) {
+				stream.nextInstance();
+			}
+		}
 		
 		int secondsElapsed = 0;
 
 		monitor.setCurrentActivity("Evaluating learner...", -1.0);
 
 		File dumpFile = this.dumpFileOption.getFile();
-		PrintStream immediateResultStream = null;
-		if (dumpFile != null) {
+		if (dumpFile != null && !this.binaryDumpOption.isSet()) {
 			try {
 				if (dumpFile.exists()) {
 					immediateResultStream = new PrintStream(new FileOutputStream(dumpFile, true), false);
@@ -263,8 +523,7 @@ public class EvaluatePrequential extends ClassificationMainTask {
 				throw new RuntimeException("Unable to open immediate result file: " + dumpFile, ex);
 			}
 		}
-		PrintStream immediateBinResultStream = null;
-		if (dumpFile != null) {
+		if (dumpFile != null && !this.binaryDumpOption.isSet()) {
 			try {
 				if (dumpFile.exists()) {
 					immediateBinResultStream = new PrintStream(new FileOutputStream(dumpFile + "_bins", true), false);
@@ -275,72 +534,124 @@ public class EvaluatePrequential extends ClassificationMainTask {
 				throw new RuntimeException("Unable to open immediate result file: " + dumpFile, ex);
 			}
 		}
+		// binary dump files are appended to only when a run is resumed after the first entries were written
+		if (dumpFile != null && this.binaryDumpOption.isSet()) {
+			boolean append = (checkpoint != null) && !checkpoint.firstDump;
+			binaryResultWriter = new BinaryLearningCurveWriter(dumpFile, append);
+			binaryBinResultWriter = new BinaryLearningCurveWriter(new File(dumpFile + "_bins"), append);
+		}
 
-		for (int i = 0; i <= binCount + 1; i++) {
-			this.binEvaluators[i] = (BinnedPerformanceEvaluator) evaluator.copy();
-			// note that memory buffer inside of evaluator will be allocated when first
-			this.binEvaluators[i].setEvaluatorInstance("bin " + i + ":");
+		if (checkpoint == null) {
+			MultiBinClassificationPerformanceEvaluator multiBinEvaluator = null;
+			if (this.shareBinEvaluatorOption.isSet() && MultiBinClassificationPerformanceEvaluator.isSupported(evaluator)) {
+				multiBinEvaluator = new MultiBinClassificationPerformanceEvaluator(
+						(BasicClassificationPerformanceEvaluator) evaluator, binCount + 2);
+			}
+			for (int i = 0; i <= binCount + 1; i++) {
+				if (multiBinEvaluator != null) {
+					this.binEvaluators[i] = multiBinEvaluator.getBin(i);
+				} else {
+					this.binEvaluators[i] = (BinnedPerformanceEvaluator) evaluator.copy();
+				}
+				// note that memory buffer inside of evaluator will be allocated when first
+				this.binEvaluators[i].setEvaluatorInstance("bin " + i + ":");
+			}
 		}
 
 		// File for output predictions
 		File outputPredictionFile = this.outputPredictionFileOption.getFile();
-		PrintStream outputPredictionResultStream = null;
 		if (outputPredictionFile != null) {
-			try {
-				if (outputPredictionFile.exists()) {
-					outputPredictionResultStream = new PrintStream(new FileOutputStream(outputPredictionFile, true),
-							true);
-				} else {
-					outputPredictionResultStream = new PrintStream(new FileOutputStream(outputPredictionFile), true);
-				}
-			} catch (Exception ex) {
-				throw new RuntimeException("Unable to open prediction result file: " + outputPredictionFile, ex);
-			}
+			outputPredictionWriter = new PredictionWriter(outputPredictionFile, true);
+		}
+		File outputRepredictionFile = this.outputRepredictionFileOption.getFile();
+		this.repredictionWriter = null;
+		if (outputRepredictionFile != null) {
+			this.repredictionWriter = new PredictionWriter(outputRepredictionFile, true);
 		}
-		boolean firstDump = true;
+		File metricsFile = this.metricsFileOption.getFile();
+		this.metrics = (metricsFile == null) ? null
+				: new EvaluationMetrics(metricsFile, this.metricsIntervalOption.getValue());
+		boolean firstDump = (checkpoint == null) || checkpoint.firstDump;
 		boolean preciseCPUTiming = TimingUtils.enablePreciseTiming();
+		this.phaseTimer = this.phaseTimingOption.isSet() ? new PhaseTimer() : null;
 		long evaluateStartTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
 		long lastEvaluateStartTime = evaluateStartTime;
 		double RAMHours = 0.0;
+		if (checkpoint != null) {
+			// evaluation time and RAM-Hours continue from the checkpoint
+			evaluateStartTime -= checkpoint.evaluationTime;
+			lastEvaluateStartTime = evaluateStartTime + checkpoint.lastEvaluationTime;
+			RAMHours = checkpoint.RAMHours;
+			if (this.phaseTimer != null) {
+				this.phaseTimer.setPhaseTimes(checkpoint.phaseTimes);
+			}
+		}
 		while (stream.hasMoreInstances() && ((maxInstances < 0) || (instancesProcessed < maxInstances))
 				&& ((maxSeconds < 0) || (secondsElapsed < maxSeconds))) {
 			Example trainInst = stream.nextInstance();
 			Example testInst = (Example) trainInst; // .copy();
 			// testInst.setClassMissing();
+			long predictionStartTime = (this.metrics != null) ? System.nanoTime() : 0;
+			enterPhase(PhaseTimer.Phase.PREDICTION);
 			double[] prediction = learner.getVotesForInstance(testInst);
+			enterPhase(PhaseTimer.Phase.OUTPUT);
+			if (this.metrics != null) {
+				this.metrics.predictLatency.recordSince(predictionStartTime);
+			}
 			// Output prediction
 			if (outputPredictionFile != null) {
 				int trueClass = (int) ((Instance) trainInst.getData()).classValue();
-				outputPredictionResultStream.println(Utils.maxIndex(prediction) + ","
-						+ (((Instance) testInst.getData()).classIsMissing() == true ? " ? " : trueClass));
+				outputPredictionWriter.print(Utils.maxIndex(prediction));
+				outputPredictionWriter.print(',');
+				if (((Instance) testInst.getData()).classIsMissing() == true) {
+					outputPredictionWriter.print(" ? ");
+				} else {
+					outputPredictionWriter.print(trueClass);
+				}
+				outputPredictionWriter.println();
 			}
 
+			enterPhase(PhaseTimer.Phase.EVALUATOR_UPDATE);
 			evaluator.addResult(testInst, prediction);
+			enterPhase(PhaseTimer.Phase.OTHER);
 
 			// put instance in a buffer (if unlabelled)
 			// or update predictions for instances waiting for their labels
 			// and update performance indicators (if labelled)
 			this.putResultInBuffer(testInst, prediction, learner, this.binEvaluators);
 
+			long trainingStartTime = (this.metrics != null) ? System.nanoTime() : 0;
+			enterPhase(PhaseTimer.Phase.TRAINING);
 			learner.trainOnInstance(trainInst);
+			enterPhase(PhaseTimer.Phase.OTHER);
 			instancesProcessed++;
+			if (this.metrics != null) {
+				this.metrics.trainLatency.recordSince(trainingStartTime);
+				this.metrics.instances.increment();
+				this.metrics.updateBuffer(instancesInProgress);
+			}
 			if (instancesProcessed % this.sampleFrequencyOption.getValue() == 0 || stream.hasMoreInstances() == false) {
 				long evaluateTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
 				double time = TimingUtils.nanoTimeToSeconds(evaluateTime - evaluateStartTime);
 				double timeIncrement = TimingUtils.nanoTimeToSeconds(evaluateTime - lastEvaluateStartTime);
-				double RAMHoursIncrement = learner.measureByteSize() / (1024.0 * 1024.0 * 1024.0); // GBs
+				// the model is measured exactly every memCheckFrequency instances and at the end of the stream
+				long learnerByteSize = modelSizeEstimator.getByteSize(learner, instancesProcessed,
+						stream.hasMoreInstances() == false);
+				if (this.metrics != null) {
+					this.metrics.learnerByteSize.set(learnerByteSize);
+				}
+				double RAMHoursIncrement = learnerByteSize / (1024.0 * 1024.0 * 1024.0); // GBs
 				RAMHoursIncrement *= (timeIncrement / 3600.0); // Hours
 				RAMHours += RAMHoursIncrement;
 				lastEvaluateStartTime = evaluateTime;
-				learningCurve
-						.insertEntry(
-								new LearningEvaluation(
-										new Measurement[] {
-												new Measurement("learning evaluation instances", instancesProcessed),
-												new Measurement("evaluation time (" + (preciseCPUTiming ? "cpu " : "")
-														+ "seconds)", time),
-												new Measurement("model cost (RAM-Hours)", RAMHours) },
-										evaluator, learner));
+				Measurement[] measurements = new Measurement[] {
+						new Measurement("learning evaluation instances", instancesProcessed),
+						new Measurement("evaluation time (" + (preciseCPUTiming ? "cpu " : "") + "seconds)", time),
+						new Measurement("model cost (RAM-Hours)", RAMHours) };
+				if (this.phaseTimer != null) {
+					measurements = this.phaseTimer.addSampleMeasurements(measurements, preciseCPUTiming);
+				}
+				learningCurve.insertEntry(new LearningEvaluation(measurements, evaluator, learner));
 
 				learningBinCurve
 						.insertEntry(
@@ -351,6 +662,7 @@ public class EvaluatePrequential extends ClassificationMainTask {
 														+ "seconds)", time),
 												new Measurement("model cost (RAM-Hours)", RAMHours) },
 										this.binEvaluators, learner));
+				enterPhase(PhaseTimer.Phase.OUTPUT);
 				if (immediateResultStream != null) {
 					if (firstDump) {
 						immediateResultStream.println(learningCurve.headerToString());
@@ -366,6 +678,39 @@ public class EvaluatePrequential extends ClassificationMainTask {
 					immediateBinResultStream.println(learningBinCurve.entryToString(learningCurve.numEntries() - 1));
 					immediateBinResultStream.flush();
 				}
+				if (binaryResultWriter != null) {
+					binaryResultWriter.writeEntry(learningCurve, learningCurve.numEntries() - 1);
+					binaryBinResultWriter.writeEntry(learningBinCurve, learningCurve.numEntries() - 1);
+					firstDump = false;
+				}
+				enterPhase(PhaseTimer.Phase.OTHER);
+			}
+			// write the state of the run, so that it can be resumed after a crash
+			if ((checkpointFile != null) && (this.checkpointFrequencyOption.getValue() > 0)
+					&& (instancesProcessed % this.checkpointFrequencyOption.getValue() == 0)) {
+				EvaluationCheckpoint newCheckpoint = new EvaluationCheckpoint();
+				newCheckpoint.learner = learner;
+				newCheckpoint.evaluator = evaluator;
+				newCheckpoint.binEvaluators = this.binEvaluators;
+				newCheckpoint.instancesInProgress = instancesInProgress;
+				newCheckpoint.learningCurve = learningCurve;
+				newCheckpoint.learningBinCurve = learningBinCurve;
+				newCheckpoint.modelSizeEstimator = modelSizeEstimator;
+				newCheckpoint.instancesProcessed = instancesProcessed;
+				newCheckpoint.evaluationTime = TimingUtils.getNanoCPUTimeOfCurrentThread() - evaluateStartTime;
+				newCheckpoint.lastEvaluationTime = lastEvaluateStartTime - evaluateStartTime;
+				newCheckpoint.RAMHours = RAMHours;
+				newCheckpoint.firstDump = firstDump;
+				if (this.phaseTimer != null) {
+					newCheckpoint.phaseTimes = this.phaseTimer.getPhaseTimes();
+				}
+				if (binaryResultWriter != null) {
+					binaryResultWriter.flush();
+					binaryBinResultWriter.flush();
+				}
+				flushPredictionWriters(outputPredictionWriter, this.repredictionWriter);
+				newCheckpoint.recordOutputFiles(getOutputFiles());
+				newCheckpoint.writeToFile(checkpointFile);
 			}
 			if (instancesProcessed % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
 				if (monitor.taskShouldAbort()) {
@@ -387,12 +732,6 @@ public class EvaluatePrequential extends ClassificationMainTask {
 						.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread() - evaluateStartTime);
 			}
 		}
-		if (immediateResultStream != null) {
-			immediateResultStream.close();
-		}
-		if (outputPredictionResultStream != null) {
-			outputPredictionResultStream.close();
-		}
 		return learningCurve;
 	}
 }
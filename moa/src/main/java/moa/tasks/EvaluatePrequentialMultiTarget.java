@@ -21,6 +21,7 @@
 package moa.tasks;
 
 import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
@@ -42,7 +43,10 @@ import moa.evaluation.FadingFactorClassificationPerformanceEvaluator;
 import moa.evaluation.LearningCurve;
 import moa.evaluation.LearningEvaluation;
 import moa.evaluation.LearningPerformanceEvaluator;
+import moa.evaluation.ModelSizeEstimator;
 import moa.evaluation.MultiTargetPerformanceEvaluator;
+import moa.evaluation.PhaseTimer;
+import moa.evaluation.PredictionWriter;
 import moa.evaluation.RegressionPerformanceEvaluator;
 import moa.evaluation.WindowClassificationPerformanceEvaluator;
 import moa.learners.Learner;
@@ -93,7 +97,7 @@ public class EvaluatePrequentialMultiTarget extends MultiTargetMainTask {
 
     public IntOption memCheckFrequencyOption = new IntOption(
             "memCheckFrequency", 'q',
-            "How many instances between memory bound checks.", 100000, 0,
+            "How many instances between exact measurements of the model size, estimated in between (0 = measure at every sample).", 0, 0,
             Integer.MAX_VALUE);
 
     public FileOption dumpFileOption = new FileOption("dumpFile", 'd',
@@ -102,6 +106,9 @@ public class EvaluatePrequentialMultiTarget extends MultiTargetMainTask {
     public FileOption outputPredictionFileOption = new FileOption("outputPredictionFile", 'o',
             "File to append output predictions to.", null, "pred", true);
 
+    public FlagOption phaseTimingOption = new FlagOption("phaseTiming", 'T',
+            "Measure the CPU time of the phases of the evaluation, i.e. predictions, evaluator updates, training and output, and add it to the learning curve.");
+
     //New for prequential method DEPRECATED
     public IntOption widthOption = new IntOption("width",
             'w', "Size of Window", 1000);
@@ -110,13 +117,51 @@ public class EvaluatePrequentialMultiTarget extends MultiTargetMainTask {
             'a', "Fading factor or exponential smoothing factor", .01);
     //End New for prequential methods
 
+    private transient PhaseTimer phaseTimer;
+
+    // the outputs of a run, closed when the run ends, also if it fails
+    private transient PrintStream immediateResultStream;
+
+    private transient PredictionWriter outputPredictionWriter;
+
     @Override
     public Class<?> getTaskResultType() {
         return LearningCurve.class;
     }
 
+    // charge the time elapsed since the previous phase to it and enter the given phase, if phases are timed
+    private void enterPhase(PhaseTimer.Phase phase) {
+        if (this.phaseTimer != null) {
+            this.phaseTimer.enter(phase);
+        }
+    }
+
     @Override
     protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
+        try {
+            return evaluate(monitor, repository);
+        } finally {
+            closeRun();
+        }
+    }
+
+    // close the outputs of the run, whether it completed, was aborted or failed,
+    // so that the results written before a failure are kept
+    private void closeRun() {
+        try {
+            if (this.immediateResultStream != null) {
+                this.immediateResultStream.close();
+            }
+            if (this.outputPredictionWriter != null) {
+                this.outputPredictionWriter.close();
+            }
+        } finally {
+            this.immediateResultStream = null;
+            this.outputPredictionWriter = null;
+        }
+    }
+
+    private Object evaluate(TaskMonitor monitor, ObjectRepository repository) {
         Learner learner = (Learner) getPreparedClassOption(this.learnerOption);
         ExampleStream stream = (ExampleStream) getPreparedClassOption(this.streamOption);
         LearningPerformanceEvaluator evaluator = (LearningPerformanceEvaluator) getPreparedClassOption(this.evaluatorOption);
@@ -155,7 +200,6 @@ public class EvaluatePrequentialMultiTarget extends MultiTargetMainTask {
         monitor.setCurrentActivity("Evaluating learner...", -1.0);
 
         File dumpFile = this.dumpFileOption.getFile();
-        PrintStream immediateResultStream = null;
         if (dumpFile != null) {
             try {
                 if (dumpFile.exists()) {
@@ -172,26 +216,18 @@ public class EvaluatePrequentialMultiTarget extends MultiTargetMainTask {
         }
         //File for output predictions
         File outputPredictionFile = this.outputPredictionFileOption.getFile();
-        PrintStream outputPredictionResultStream = null;
         if (outputPredictionFile != null) {
-            try {
-                if (outputPredictionFile.exists()) {
-                    outputPredictionResultStream = new PrintStream(
-                            new FileOutputStream(outputPredictionFile, true), true);
-                } else {
-                    outputPredictionResultStream = new PrintStream(
-                            new FileOutputStream(outputPredictionFile), true);
-                }
-            } catch (Exception ex) {
-                throw new RuntimeException(
-                        "Unable to open prediction result file: " + outputPredictionFile, ex);
-            }
+            outputPredictionWriter = new PredictionWriter(outputPredictionFile, true);
         }
         boolean firstDump = true;
         boolean preciseCPUTiming = TimingUtils.enablePreciseTiming();
+        // there are no re-predictions and bins in this evaluation
+        this.phaseTimer = this.phaseTimingOption.isSet() ? new PhaseTimer(PhaseTimer.Phase.PREDICTION,
+                PhaseTimer.Phase.EVALUATOR_UPDATE, PhaseTimer.Phase.TRAINING, PhaseTimer.Phase.OUTPUT) : null;
         long evaluateStartTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
         long lastEvaluateStartTime = evaluateStartTime;
         double RAMHours = 0.0;
+        ModelSizeEstimator modelSizeEstimator = new ModelSizeEstimator(this.memCheckFrequencyOption.getValue());
         while (stream.hasMoreInstances()
                 && ((maxInstances < 0) || (instancesProcessed < maxInstances))
                 && ((maxSeconds < 0) || (secondsElapsed < maxSeconds))) {
@@ -199,42 +235,56 @@ public class EvaluatePrequentialMultiTarget extends MultiTargetMainTask {
             Example testInst = (Example) trainInst; //.copy();
             //testInst.setClassMissing();
             //double[] prediction = learner.getVotesForInstance(testInst);
+            enterPhase(PhaseTimer.Phase.PREDICTION);
             Prediction prediction = learner.getPredictionForInstance(testInst);
+            enterPhase(PhaseTimer.Phase.OUTPUT);
             // Output prediction
             if (outputPredictionFile != null) {
                 double trueClass = ((Instance) trainInst.getData()).classValue();
-                outputPredictionResultStream.println(prediction + "," + trueClass);
+                outputPredictionWriter.print(prediction.toString());
+                outputPredictionWriter.print(',');
+                outputPredictionWriter.print(trueClass);
+                outputPredictionWriter.println();
             }
 
             //evaluator.addClassificationAttempt(trueClass, prediction, testInst.weight());
+            enterPhase(PhaseTimer.Phase.EVALUATOR_UPDATE);
             evaluator.addResult(testInst, prediction);
+            enterPhase(PhaseTimer.Phase.TRAINING);
             learner.trainOnInstance(trainInst);
+            enterPhase(PhaseTimer.Phase.OTHER);
             instancesProcessed++;
             if (instancesProcessed % this.sampleFrequencyOption.getValue() == 0
                     || stream.hasMoreInstances() == false) {
                 long evaluateTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
                 double time = TimingUtils.nanoTimeToSeconds(evaluateTime - evaluateStartTime);
                 double timeIncrement = TimingUtils.nanoTimeToSeconds(evaluateTime - lastEvaluateStartTime);
-                double RAMHoursIncrement = learner.measureByteSize() / (1024.0 * 1024.0 * 1024.0); //GBs
+                // the model is measured exactly every memCheckFrequency instances and at the end of the stream
+                long learnerByteSize = modelSizeEstimator.getByteSize(learner, instancesProcessed,
+                        stream.hasMoreInstances() == false);
+                double RAMHoursIncrement = learnerByteSize / (1024.0 * 1024.0 * 1024.0); //GBs
                 RAMHoursIncrement *= (timeIncrement / 3600.0); //Hours
                 RAMHours += RAMHoursIncrement;
                 lastEvaluateStartTime = evaluateTime;
-                learningCurve.insertEntry(new LearningEvaluation(
-                        new Measurement[]{
-                            new Measurement(
-                            "learning evaluation instances",
-                            instancesProcessed),
-                            new Measurement(
-                            "evaluation time ("
-                            + (preciseCPUTiming ? "cpu "
-                            : "") + "seconds)",
-                            time),
-                            new Measurement(
-                            "model cost (RAM-Hours)",
-                            RAMHours)
-                        },
-                        evaluator, learner));
+                Measurement[] measurements = new Measurement[]{
+                    new Measurement(
+                    "learning evaluation instances",
+                    instancesProcessed),
+                    new Measurement(
+                    "evaluation time ("
+                    + (preciseCPUTiming ? "cpu "
+                    : "") + "seconds)",
+                    time),
+                    new Measurement(
+                    "model cost (RAM-Hours)",
+                    RAMHours)
+                };
+                if (this.phaseTimer != null) {
+                    measurements = this.phaseTimer.addSampleMeasurements(measurements, preciseCPUTiming);
+                }
+                learningCurve.insertEntry(new LearningEvaluation(measurements, evaluator, learner));
 
+                enterPhase(PhaseTimer.Phase.OUTPUT);
                 if (immediateResultStream != null) {
                     if (firstDump) {
                         immediateResultStream.println(learningCurve.headerToString());
@@ -243,6 +293,7 @@ public class EvaluatePrequentialMultiTarget extends MultiTargetMainTask {
                     immediateResultStream.println(learningCurve.entryToString(learningCurve.numEntries() - 1));
                     immediateResultStream.flush();
                 }
+                enterPhase(PhaseTimer.Phase.OTHER);
             }
             if (instancesProcessed % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
                 if (monitor.taskShouldAbort()) {
@@ -271,12 +322,6 @@ public class EvaluatePrequentialMultiTarget extends MultiTargetMainTask {
         StringBuilder sb= new StringBuilder();
         learner.getDescription(sb, 0);
         System.out.println(sb.toString());
-        if (immediateResultStream != null) {
-            immediateResultStream.close();
-        }
-        if (outputPredictionResultStream != null) {
-            outputPredictionResultStream.close();
-        }
         return learningCurve;
     }
 }
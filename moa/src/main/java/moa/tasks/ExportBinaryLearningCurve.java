@@ -0,0 +1,78 @@
+/*
+ *    ExportBinaryLearningCurve.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+
+import com.github.javacliparser.FileOption;
+
+import moa.core.ObjectRepository;
+import moa.evaluation.BinaryLearningCurveReader;
+
+/**
+ * Task to convert a binary dump file, written by the prequential evaluation tasks with the binary dump option,
+ * to the csv dump file the task would write otherwise
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class ExportBinaryLearningCurve extends AuxiliarMainTask {
+
+    @Override
+    public String getPurposeString() {
+        return "Converts a binary learning curve dump file to a csv file.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    public FileOption binaryFileOption = new FileOption("binaryFile", 'f',
+            "Binary dump file to convert.", null, "bin", false);
+
+    public FileOption csvFileOption = new FileOption("csvFile", 'c',
+            "Destination csv file.", null, "csv", true);
+
+    @Override
+    protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
+        File binaryFile = this.binaryFileOption.getFile();
+        File csvFile = this.csvFileOption.getFile();
+        if (binaryFile == null || csvFile == null) {
+            throw new IllegalArgumentException("No binary file to convert or no destination file to write to.");
+        }
+        monitor.setCurrentActivityDescription("Converting binary learning curve to csv");
+        BinaryLearningCurveReader reader = new BinaryLearningCurveReader(binaryFile);
+        try {
+            PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(csvFile)), false);
+            reader.writeCsv(out);
+            out.close();
+        } catch (FileNotFoundException ex) {
+            throw new RuntimeException("Failed writing to file " + csvFile, ex);
+        } finally {
+            reader.close();
+        }
+        return "Learning curve of " + reader.numEntries() + " entries written to csv file " + csvFile;
+    }
+
+    @Override
+    public Class<?> getTaskResultType() {
+        return String.class;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ *    RunParameterSweep.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import moa.core.ObjectRepository;
+import moa.options.ClassOption;
+import moa.options.OptionHandler;
+import moa.streams.BinaryInstanceFileStream;
+
+import com.github.javacliparser.FileOption;
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.Option;
+import com.github.javacliparser.StringOption;
+
+/**
+ * Task for running the variants of a task for every combination of the values of its parameters,
+ * e.g. the prediction frequency and the bin count of EvaluatePrequential, concurrently on a bounded pool of threads.
+ * Every variant writes to its own output files, named by inserting the parameter values before the extension
+ * of the output files of the task, e.g. temp_K3_B10.csv, so that the names do not depend on the order the variants
+ * complete in. The number of variants run concurrently is limited so that the heap reserved for every
+ * running variant fits in the maximum heap size. Optionally, the stream of the task is written once to a binary
+ * instance file memory-mapped by all the variants, so that the stream is read and parsed only once.
+ * The variants run in one JVM, hence the learners and streams used have to keep no static state
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class RunParameterSweep extends AuxiliarMainTask {
+
+    @Override
+    public String getPurposeString() {
+        return "Runs the variants of a task for every combination of the values of its parameters concurrently.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    public ClassOption taskOption = new ClassOption("task", 't',
+            "Task to run the variants of.", Task.class, "EvaluatePrequential -l trees.HoeffdingTree -i 1000000 -d temp.csv");
+
+    public StringOption parametersOption = new StringOption("parameters", 'p',
+            "Parameters of the task to vary with their values, e.g. K=1,3,7;B=10,50. A parameter of a class option of the task, e.g. of the learner, is given as l/g.",
+            "K=1,10");
+
+    public IntOption jobsOption = new IntOption("jobs", 'j',
+            "Number of variants run concurrently (-1 = all processors).", -1, -1, Integer.MAX_VALUE);
+
+    public IntOption taskMemoryOption = new IntOption("taskMemory", 'm',
+            "Heap size (MB) reserved for every running variant, fewer variants run concurrently if the maximum heap size cannot hold them (0 = no limit).",
+            0, 0, Integer.MAX_VALUE);
+
+    public FileOption sharedStreamFileOption = new FileOption("sharedStreamFile", 'c',
+            "Binary instance file the first instanceLimit instances of the stream of the task are written to once and memory-mapped by all the variants (default: every variant reads the stream).",
+            null, "bin", true);
+
+    @Override
+    public Class<?> getTaskResultType() {
+        return this.task.getTaskResultType();
+    }
+
+    protected Task task;
+
+    @Override
+    protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
+        String commandString = this.taskOption.getValueAsCLIString();
+        this.task = createTask(commandString);
+
+        // the names of the parameters and their values
+        List<String> names = new ArrayList<String>();
+        List<String[]> values = new ArrayList<String[]>();
+        for (String parameter : this.parametersOption.getValue().split(";")) {
+            int separator = parameter.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Parameter without values: " + parameter);
+            }
+            names.add(parameter.substring(0, separator).trim());
+            values.add(parameter.substring(separator + 1).trim().split("\\s*,\\s*"));
+        }
+
+        // write the stream once, the variants read it from the binary file instead
+        File sharedStreamFile = this.sharedStreamFileOption.getFile();
+        if (sharedStreamFile != null) {
+            Option streamOption = ((OptionHandler) this.task).getOptions().getOption("stream");
+            if (!(streamOption instanceof ClassOption)) {
+                throw new IllegalArgumentException("The task has no stream to share.");
+            }
+            for (String name : names) {
+                if (getOption((OptionHandler) this.task, name) == streamOption) {
+                    throw new IllegalArgumentException("The stream cannot be shared when its parameter " + name + " is varied.");
+                }
+            }
+            // only the instances read by the variants are written, a generator never ends
+            Option instanceLimitOption = ((OptionHandler) this.task).getOptions().getOption("instanceLimit");
+            if (!(instanceLimitOption instanceof IntOption)) {
+                throw new IllegalArgumentException("The stream cannot be shared by a task without an instance limit.");
+            }
+            int maxInstances = ((IntOption) instanceLimitOption).getValue();
+            for (int i = 0; i < names.size(); i++) {
+                if (getOption((OptionHandler) this.task, names.get(i)) == instanceLimitOption) {
+                    // the longest run of the variants, unbounded if any of them is
+                    maxInstances = 0;
+                    for (String value : values.get(i)) {
+                        int instanceLimit = Integer.parseInt(value);
+                        maxInstances = (instanceLimit < 0 || maxInstances < 0) ? -1 : Math.max(maxInstances, instanceLimit);
+                    }
+                }
+            }
+            if (maxInstances < 0) {
+                throw new IllegalArgumentException("The stream cannot be shared without a limit of instances of the task.");
+            }
+            WriteStreamToBinaryFile writer = new WriteStreamToBinaryFile();
+            writer.getOptions().setViaCLIString("-s (" + streamOption.getValueAsCLIString() + ") -m " + maxInstances);
+            writer.binaryFileOption.setValue(sharedStreamFile.getPath());
+            writer.doTask(monitor, repository);
+        }
+
+        int numVariants = 1;
+        for (String[] parameterValues : values) {
+            numVariants *= parameterValues.length;
+        }
+        int numberOfJobs = this.jobsOption.getValue();
+        if (numberOfJobs == -1) {
+            numberOfJobs = Runtime.getRuntime().availableProcessors();
+        }
+        if (this.taskMemoryOption.getValue() > 0) {
+            long variantsInHeap = Runtime.getRuntime().maxMemory() / (this.taskMemoryOption.getValue() * 1024L * 1024L);
+            numberOfJobs = (int) Math.min(numberOfJobs, variantsInHeap);
+        }
+        numberOfJobs = Math.max(1, Math.min(numberOfJobs, numVariants));
+
+        ExecutorService pool = Executors.newFixedThreadPool(numberOfJobs);
+        List<String> variantNames = new ArrayList<String>(numVariants);
+        List<StandardTaskMonitor> variantMonitors = new ArrayList<StandardTaskMonitor>(numVariants);
+        List<Future<Object>> variantResults = new ArrayList<Future<Object>>(numVariants);
+        for (int variant = 0; variant < numVariants; variant++) {
+            // the values of the variant, the values of the last parameter change first
+            String suffix = "";
+            Task variantTask = createTask(commandString);
+            int remainder = variant;
+            String[] variantValues = new String[names.size()];
+            for (int i = names.size() - 1; i >= 0; i--) {
+                variantValues[i] = values.get(i)[remainder % values.get(i).length];
+                remainder /= values.get(i).length;
+            }
+            for (int i = 0; i < names.size(); i++) {
+                setParameter((OptionHandler) variantTask, names.get(i), variantValues[i]);
+                suffix += "_" + names.get(i).replace('/', '-') + variantValues[i];
+            }
+            for (Option option : ((OptionHandler) variantTask).getOptions().getOptionArray()) {
+                if ((option instanceof FileOption) && ((FileOption) option).isOutputFile()
+                        && (((FileOption) option).getValue() != null) && (((FileOption) option).getValue().length() > 0)) {
+                    ((FileOption) option).setValue(addSuffix(((FileOption) option).getValue(), suffix));
+                }
+            }
+            if (sharedStreamFile != null) {
+                BinaryInstanceFileStream stream = new BinaryInstanceFileStream();
+                stream.binaryFileOption.setValue(sharedStreamFile.getPath());
+                ((ClassOption) ((OptionHandler) variantTask).getOptions().getOption("stream")).setCurrentObject(stream);
+            }
+
+            final Task runTask = variantTask;
+            final StandardTaskMonitor variantMonitor = new StandardTaskMonitor();
+            final ObjectRepository variantRepository = repository;
+            variantNames.add(suffix.substring(1));
+            variantMonitors.add(variantMonitor);
+            variantResults.add(pool.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return runTask.doTask(variantMonitor, variantRepository);
+                }
+            }));
+            if (variant == numVariants - 1) {
+                this.task = variantTask;
+            }
+        }
+        pool.shutdown();
+
+        // wait for the variants in their order, the result is the result of the last variant
+        Object result = null;
+        for (int variant = 0; variant < numVariants; variant++) {
+            monitor.setCurrentActivity("Running variant " + variantNames.get(variant) + " ("
+                    + (variant + 1) + " of " + numVariants + ", " + numberOfJobs + " concurrently)...",
+                    (double) variant / numVariants);
+            while (true) {
+                if (monitor.taskShouldAbort()) {
+                    for (StandardTaskMonitor variantMonitor : variantMonitors) {
+                        variantMonitor.requestCancel();
+                    }
+                    pool.shutdownNow();
+                    return null;
+                }
+                try {
+                    result = variantResults.get(variant).get(100, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException ex) {
+                    // check whether the sweep was cancelled in the meantime
+                } catch (ExecutionException ex) {
+                    pool.shutdownNow();
+                    throw new RuntimeException("Variant failed: " + variantNames.get(variant), ex.getCause());
+                } catch (InterruptedException ex) {
+                    pool.shutdownNow();
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while running the variants", ex);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Task createTask(String commandString) {
+        try {
+            return (Task) ClassOption.cliStringToObject(commandString, Task.class, null);
+        } catch (Exception ex) {
+            throw new RuntimeException("Unable to create the task: " + commandString, ex);
+        }
+    }
+
+    // get the option of the handler given by its name or its cli char, or of the class option before '/'
+    private static Option getOption(OptionHandler handler, String name) {
+        int separator = name.indexOf('/');
+        if (separator >= 0) {
+            name = name.substring(0, separator);
+        }
+        return (name.length() == 1) ? handler.getOptions().getOption(name.charAt(0))
+                : handler.getOptions().getOption(name);
+    }
+
+    private static void setParameter(OptionHandler handler, String name, String value) {
+        Option option = getOption(handler, name);
+        if (option == null) {
+            throw new IllegalArgumentException("Unknown parameter of the task: " + name);
+        }
+        int separator = name.indexOf('/');
+        if (separator < 0) {
+            option.setValueViaCLIString(value);
+        } else {
+            // as in RunTasks, the parameter is appended to the options of the class option
+            option.setValueViaCLIString(option.getValueAsCLIString() + " -" + name.substring(separator + 1) + " " + value);
+        }
+    }
+
+    // insert the suffix before the extension of the file name, if any
+    private static String addSuffix(String fileName, String suffix) {
+        int extension = fileName.lastIndexOf('.');
+        if (extension <= fileName.lastIndexOf(File.separatorChar)) {
+            return fileName + suffix;
+        }
+        return fileName.substring(0, extension) + suffix + fileName.substring(extension);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *    WriteStreamToBinaryFile.java
+ *    Copyright (C) 2019 Warsaw University of Technology, Warszawa, Poland
+ *    @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import moa.core.ObjectRepository;
+import moa.options.ClassOption;
+import moa.streams.BinaryInstanceFileStream;
+import moa.streams.ExampleStream;
+
+import com.github.javacliparser.FileOption;
+import com.github.javacliparser.IntOption;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Task to convert a stream, such as a large ARFF file, once into a binary instance file
+ * read by BinaryInstanceFileStream without parsing text.
+ * The values of all attributes, the weight, the instance id and the time stamp of every instance are written
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class WriteStreamToBinaryFile extends AuxiliarMainTask {
+
+    @Override
+    public String getPurposeString() {
+        return "Outputs a stream to a binary instance file read by BinaryInstanceFileStream.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    public ClassOption streamOption = new ClassOption("stream", 's',
+            "Stream to write.", ExampleStream.class,
+            "generators.RandomTreeGenerator");
+
+    public FileOption binaryFileOption = new FileOption("binaryFile", 'f',
+            "Destination binary instance file.", null, "bin", true);
+
+    public IntOption maxInstancesOption = new IntOption("maxInstances", 'm',
+            "Maximum number of instances to write to file.", Integer.MAX_VALUE, 0,
+            Integer.MAX_VALUE);
+
+    @Override
+    protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
+        ExampleStream stream = (ExampleStream) getPreparedClassOption(this.streamOption);
+        File destFile = this.binaryFileOption.getFile();
+        if (destFile == null) {
+            throw new IllegalArgumentException("No destination file to write to.");
+        }
+        monitor.setCurrentActivityDescription("Writing stream to binary file");
+        int numAttributes = stream.getHeader().numAttributes();
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(destFile, "rw");
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, 8 * (numAttributes + 3)))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            // the header is written once the number of instances is known
+            channel.position(BinaryInstanceFileStream.DATA_OFFSET);
+            long numWritten = 0;
+            while ((numWritten < this.maxInstancesOption.getValue())
+                    && stream.hasMoreInstances()) {
+                Instance instance = (Instance) stream.nextInstance().getData();
+                if (buffer.remaining() < 8 * (numAttributes + 3)) {
+                    write(channel, buffer);
+                }
+                for (int i = 0; i < numAttributes; i++) {
+                    buffer.putDouble(instance.value(i));
+                }
+                buffer.putDouble(instance.weight());
+                buffer.putLong((long) instance.instanceId());
+                buffer.putLong(instance.instanceTimeStamp());
+                numWritten++;
+            }
+            write(channel, buffer);
+
+            // the InstancesHeader is written after the records, when all nominal values
+            // added to the attributes while reading the stream are known
+            long headerOffset = channel.position();
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(headerBytes);
+            out.writeObject(new InstancesHeader(stream.getHeader()));
+            out.close();
+            writeFully(channel, ByteBuffer.wrap(headerBytes.toByteArray()));
+
+            buffer.putInt(BinaryInstanceFileStream.MAGIC);
+            buffer.putInt(BinaryInstanceFileStream.VERSION);
+            buffer.putInt(numAttributes);
+            buffer.putInt(0);
+            buffer.putLong(numWritten);
+            buffer.putLong(headerOffset);
+            channel.position(0);
+            write(channel, buffer);
+            randomAccessFile.close();
+            return "Stream of " + numWritten + " instances written to binary file " + destFile;
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed writing to file " + destFile, ex);
+        }
+    }
+
+    // write the buffer to the channel and clear it
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        ((Buffer) buffer).flip();
+        writeFully(channel, buffer);
+        ((Buffer) buffer).clear();
+    }
+
+    // write the remaining bytes of the data, a single write can write only a part of them
+    private static void writeFully(FileChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    @Override
+    public Class<?> getTaskResultType() {
+        return String.class;
+    }
+}
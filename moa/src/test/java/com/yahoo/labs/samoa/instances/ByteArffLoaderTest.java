@@ -0,0 +1,107 @@
+package com.yahoo.labs.samoa.instances;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test ByteArffLoader against ArffLoader
+ *
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class ByteArffLoaderTest {
+
+	private static final String HEADER = "% a file with delayed labels\n"
+			+ "@relation test\n"
+			+ "@attribute x numeric\n"
+			+ "@attribute y numeric\n"
+			+ "@attribute colour {red, 'light blue', \"it's\", \"say \\\"hi\\\"\"}\n"
+			+ "@attribute z numeric\n"
+			+ "@attribute class {c0, c1, c2}\n"
+			+ "@attribute id numeric\n"
+			+ "@attribute ts numeric\n"
+			+ "@data\n";
+
+	private static final String[] NUMBERS = { "0", "1", "-1", "+2.5", "3.25", "-0.125", "1e3", "1.5E-4", "-2.5e+10",
+			"1e22", "4.9E-324", "0.12345678901234567890", "12345678901234567890", "-98765432109876543.21",
+			"0.000000000000000000001", "123456789012345", "9007199254740993", "?" };
+
+	private static final String[] COLOURS = { "red", "\"light blue\"", "\"it's\"", "\"say \\\"hi\\\"\"", "?", "\"?\"" };
+
+	private static final String[] CLASSES = { "c0", "c1", "c2", "?", "\"c1\"" };
+
+	private static void assertSameInstances(String arff, int classAttribute) {
+		ArffLoader expectedLoader = new ArffLoader(new StringReader(arff), 0, classAttribute);
+		ByteArffLoader loader = new ByteArffLoader(
+				new ByteArrayInputStream(arff.getBytes(Charset.defaultCharset())), classAttribute);
+		assertEquals(expectedLoader.getStructure().numAttributes(), loader.getStructure().numAttributes());
+		assertEquals(expectedLoader.getStructure().classIndex(), loader.getStructure().classIndex());
+		int count = 0;
+		while (true) {
+			Instance expected = expectedLoader.readInstance();
+			Instance actual = loader.readInstance();
+			if (expected == null) {
+				assertNull("instance " + count, actual);
+				break;
+			}
+			assertNotNull("instance " + count, actual);
+			assertArrayEquals("instance " + count, expected.toDoubleArray(), actual.toDoubleArray(), 0.0);
+			assertEquals("instance " + count, expected.weight(), actual.weight(), 0.0);
+			assertEquals("instance " + count, expected.instanceId(), actual.instanceId(), 0.0);
+			assertEquals("instance " + count, expected.instanceTimeStamp(), actual.instanceTimeStamp());
+			count++;
+		}
+	}
+
+	@Test
+	public void testSpecialCases() {
+		String arff = HEADER
+				+ "1,2,red,3,c0,0,1\n"
+				+ "% a comment line\n"
+				+ "1.5, 2.5 , \"light blue\",3.5,c1,1,2 % a comment after the values\n"
+				+ "\n"
+				+ "?,?,?,?,?,2,3\n"
+				+ "1e3,-2.5E-3,\"it's\",1.5e+2,c2,3,4\r\n"
+				+ "0.12345678901234567890,12345678901234567890,\"say \\\"hi\\\"\",-0.0,\"c1\",4,5\r\n"
+				+ "\r\n"
+				+ "{0 1.5, 2 \"light blue\", 3 2e2, 4 c2, 5 5, 6 6}\n"
+				+ "{1 -7, 4 c0, 5 6, 6 7}\r\n"
+				+ "+1,\t2,red,\"?\",c0,7,8";
+		assertSameInstances(arff, 5);
+	}
+
+	@Test
+	public void testRandomFile() {
+		// a file longer than the buffer of the loader, so that values are split between reads
+		Random random = new Random(1);
+		StringBuilder sb = new StringBuilder(HEADER);
+		for (int i = 0; sb.length() < 3 * 1024 * 1024; i++) {
+			if (random.nextInt(50) == 0) {
+				sb.append("% comment ").append(i).append('\n');
+			}
+			if (random.nextInt(50) == 0) {
+				sb.append('{').append("0 ").append(NUMBERS[random.nextInt(NUMBERS.length - 1)])
+						.append(", 4 ").append(CLASSES[random.nextInt(3)]).append(", 5 ").append(i)
+						.append(", 6 ").append(2 * i).append('}');
+			} else {
+				sb.append(NUMBERS[random.nextInt(NUMBERS.length)]).append(',');
+				sb.append(NUMBERS[random.nextInt(NUMBERS.length)]).append(random.nextBoolean() ? ", " : ",");
+				sb.append(COLOURS[random.nextInt(COLOURS.length)]).append(',');
+				sb.append(NUMBERS[random.nextInt(NUMBERS.length)]).append(',');
+				sb.append(CLASSES[random.nextInt(CLASSES.length)]).append(',');
+				sb.append(i).append(',').append(2 * i);
+			}
+			sb.append(random.nextBoolean() ? "\r\n" : "\n");
+		}
+		assertSameInstances(sb.toString(), 5);
+	}
+
+}
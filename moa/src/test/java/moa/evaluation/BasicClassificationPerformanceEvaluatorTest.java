@@ -0,0 +1,55 @@
+package moa.evaluation;
+
+import static org.junit.Assert.assertEquals;
+
+import moa.core.Example;
+import moa.streams.generators.RandomRBFGenerator;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Test aggregating the predictions made for an instance in BasicClassificationPerformanceEvaluator
+ *
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class BasicClassificationPerformanceEvaluatorTest {
+
+	private static double[] votesFor(int classIndex, int numClasses) {
+		double[] votes = new double[numClasses];
+		votes[classIndex] = 1.0;
+		return votes;
+	}
+
+	// the first results of a new evaluator are aggregated, before it learnt the number of classes from a result
+	private static void assertAggregatedCorrectly(boolean startWithBuffer) {
+		BasicClassificationPerformanceEvaluator evaluator = new BasicClassificationPerformanceEvaluator();
+		evaluator.prepareForUse();
+		RandomRBFGenerator stream = new RandomRBFGenerator();
+		stream.getOptions().setViaCLIString("-c 4");
+		stream.prepareForUse();
+		for (int i = 0; i < 100; i++) {
+			Example<Instance> example = stream.nextInstance();
+			int trueClass = (int) example.getData().classValue();
+			int wrongClass = (trueClass + 1) % 4;
+			double[] aggregatedVotes = startWithBuffer ? evaluator.startAggregateDecision(example) : null;
+			// the true class is predicted for longer than the wrong one
+			aggregatedVotes = evaluator.addToAggregateDecision(aggregatedVotes, votesFor(wrongClass, 4), 5);
+			aggregatedVotes = evaluator.addToAggregateDecision(aggregatedVotes, votesFor(trueClass, 4), 10);
+			evaluator.addAggregatedResultForInstance(example, aggregatedVotes, 15);
+		}
+		assertEquals(1.0, evaluator.getFractionCorrectlyClassified(), 0.0);
+	}
+
+	@Test
+	public void testAggregatedFirstResults() {
+		assertAggregatedCorrectly(true);
+	}
+
+	@Test
+	public void testAggregatedFirstResultsWithoutBuffer() {
+		assertAggregatedCorrectly(false);
+	}
+
+}
@@ -0,0 +1,182 @@
+package moa.evaluation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import moa.classifiers.trees.HoeffdingTree;
+import moa.tasks.EvaluatePrequential;
+import moa.tasks.NullMonitor;
+
+import org.junit.Test;
+
+/**
+ * Test resuming EvaluatePrequential from an EvaluationCheckpoint against an uninterrupted run
+ *
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class EvaluationCheckpointTest {
+
+	private static final String STREAM = "(DelayedLabelStream -s generators.RandomRBFGenerator -d Exponential -l 100)";
+
+	// the size of the model is not compared, measuring it needs access to the internals of the JDK since Java 9
+	public static class UnmeasuredHoeffdingTree extends HoeffdingTree {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public int measureByteSize() {
+			return 0;
+		}
+	}
+
+	private static void run(String options) {
+		EvaluatePrequential task = new EvaluatePrequential();
+		task.getOptions().setViaCLIString("-s " + STREAM + " -f 500 -K 5 -B 5 " + options);
+		task.learnerOption.setCurrentObject(new UnmeasuredHoeffdingTree());
+		task.doTask(new NullMonitor(), null);
+	}
+
+	// the lines of a learning curve without the columns of time and RAM-Hours, which differ between runs
+	private static List<String> readCurve(File file) throws IOException {
+		List<String> lines = Files.readAllLines(file.toPath());
+		String[] header = lines.get(0).split(",");
+		List<String> curve = new ArrayList<String>();
+		for (String line : lines) {
+			String[] values = line.split(",");
+			assertEquals(header.length, values.length);
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < header.length; i++) {
+				if (!header[i].contains("evaluation time") && !header[i].contains("RAM-Hours")) {
+					sb.append(values[i]).append(',');
+				}
+			}
+			curve.add(sb.toString());
+		}
+		return curve;
+	}
+
+	private static void assertSameResults(File expectedDumpFile, File expectedPredictionFile,
+			File actualDumpFile, File actualPredictionFile) throws IOException {
+		assertEquals(readCurve(expectedDumpFile), readCurve(actualDumpFile));
+		assertEquals(readCurve(new File(expectedDumpFile + "_bins")), readCurve(new File(actualDumpFile + "_bins")));
+		// the predictions and re-predictions of the instances buffered in the checkpoint
+		assertArrayEquals(Files.readAllBytes(expectedPredictionFile.toPath()),
+				Files.readAllBytes(actualPredictionFile.toPath()));
+	}
+
+	private static File tempFile(String suffix) throws IOException {
+		File file = File.createTempFile("checkpoint", suffix);
+		file.deleteOnExit();
+		new File(file + "_bins").deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void testResumeSameAsUninterrupted() throws IOException {
+		File expectedDumpFile = tempFile(".csv");
+		File expectedPredictionFile = tempFile(".pred");
+		run("-i 6000 -d " + expectedDumpFile + " -o " + expectedPredictionFile);
+
+		File dumpFile = tempFile(".csv");
+		File predictionFile = tempFile(".pred");
+		File checkpointFile = tempFile(".ckpt");
+		checkpointFile.delete();
+		String options = "-d " + dumpFile + " -o " + predictionFile + " -C " + checkpointFile + " -F 1000";
+		// the run stops after the last checkpoint, the results written after it have to be cut off on resume
+		run("-i 3500 " + options);
+		assertTrue(checkpointFile.exists());
+		assertEquals(8, Files.readAllLines(dumpFile.toPath()).size());
+		run("-i 6000 -R " + options);
+		assertSameResults(expectedDumpFile, expectedPredictionFile, dumpFile, predictionFile);
+
+		// a new run, results are appended to existing output files, killed while writing its results,
+		// leaving incomplete lines in the output files
+		File[] outputFiles = new File[] { dumpFile, new File(dumpFile + "_bins"), predictionFile };
+		for (File file : outputFiles) {
+			file.delete();
+		}
+		run("-i 2500 " + options.replace("-F 1000", "-F 2000"));
+		for (File file : outputFiles) {
+			FileWriter writer = new FileWriter(file, true);
+			writer.write("2500.0,0.1");
+			writer.close();
+		}
+		run("-i 6000 -R " + options);
+		assertSameResults(expectedDumpFile, expectedPredictionFile, dumpFile, predictionFile);
+	}
+
+	private static void writeBytes(File file, int count) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		for (int i = 0; i < count; i++) {
+			writer.write('x');
+		}
+		writer.close();
+	}
+
+	@Test
+	public void testTruncateOutputFilesByRole() throws IOException {
+		File dumpFile = tempFile(".csv");
+		File predictionFile = tempFile(".pred");
+		writeBytes(dumpFile, 10);
+		writeBytes(predictionFile, 20);
+		Map<String, File> outputFiles = new LinkedHashMap<String, File>();
+		outputFiles.put(EvaluationCheckpoint.DUMP_FILE, dumpFile);
+		outputFiles.put(EvaluationCheckpoint.PREDICTION_FILE, predictionFile);
+		EvaluationCheckpoint checkpoint = new EvaluationCheckpoint();
+		checkpoint.recordOutputFiles(outputFiles);
+
+		// the same relative paths resolved against another working directory on resume
+		File resumedDumpFile = tempFile(".csv");
+		File resumedPredictionFile = tempFile(".pred");
+		writeBytes(resumedDumpFile, 15);
+		writeBytes(resumedPredictionFile, 25);
+		outputFiles.put(EvaluationCheckpoint.DUMP_FILE, resumedDumpFile);
+		outputFiles.put(EvaluationCheckpoint.PREDICTION_FILE, resumedPredictionFile);
+		checkpoint.truncateOutputFiles(outputFiles);
+		assertEquals(10, resumedDumpFile.length());
+		assertEquals(20, resumedPredictionFile.length());
+	}
+
+	@Test
+	public void testResumeWithSpillFile() throws IOException {
+		File expectedDumpFile = tempFile(".csv");
+		File expectedPredictionFile = tempFile(".pred");
+		run("-i 6000 -d " + expectedDumpFile + " -o " + expectedPredictionFile);
+
+		File dumpFile = tempFile(".csv");
+		File predictionFile = tempFile(".pred");
+		File checkpointFile = tempFile(".ckpt");
+		checkpointFile.delete();
+		File spillFile = tempFile(".spill");
+		String options = "-d " + dumpFile + " -o " + predictionFile + " -C " + checkpointFile + " -F 1000 -M 0 -S "
+				+ spillFile;
+		run("-i 3500 " + options);
+		assertEquals(0, spillFile.length());
+		// the spilled instances left by a crashed run are not read back, the buffer is restored from the checkpoint
+		FileWriter writer = new FileWriter(spillFile);
+		writer.write("instances spilled before the crash");
+		writer.close();
+		run("-i 6000 -R " + options);
+		assertSameResults(expectedDumpFile, expectedPredictionFile, dumpFile, predictionFile);
+		assertEquals(0, spillFile.length());
+
+		// the same command run again after a completed run
+		File[] outputFiles = new File[] { dumpFile, new File(dumpFile + "_bins"), predictionFile };
+		for (File file : outputFiles) {
+			file.delete();
+		}
+		run("-i 6000 " + options);
+		assertSameResults(expectedDumpFile, expectedPredictionFile, dumpFile, predictionFile);
+	}
+
+}
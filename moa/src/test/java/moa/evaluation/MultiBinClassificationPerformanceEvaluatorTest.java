@@ -0,0 +1,181 @@
+package moa.evaluation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import moa.core.Example;
+import moa.core.InstanceExample;
+import moa.core.Measurement;
+import moa.streams.generators.RandomRBFGenerator;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Test MultiBinClassificationPerformanceEvaluator against a copy of the evaluator per bin
+ *
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class MultiBinClassificationPerformanceEvaluatorTest {
+
+	private static final int BIN_COUNT = 10;
+
+	private static final String OPTIONS = "-o -p -r -f -e";
+
+	private static BasicClassificationPerformanceEvaluator newEvaluator(boolean window) {
+		BasicClassificationPerformanceEvaluator evaluator = window ? new WindowClassificationPerformanceEvaluator()
+				: new BasicClassificationPerformanceEvaluator();
+		evaluator.getOptions().setViaCLIString(window ? "-w 50 " + OPTIONS : OPTIONS);
+		evaluator.prepareForUse();
+		return evaluator;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static BinnedPerformanceEvaluator<Example<Instance>>[] newBins(int binCount) {
+		return new BinnedPerformanceEvaluator[binCount];
+	}
+
+	private static double[] randomVotes(Random random, Instance instance) {
+		double[] votes = new double[instance.numClasses()];
+		for (int i = 0; i < votes.length; i++) {
+			votes[i] = random.nextDouble();
+		}
+		// most of the predictions are correct, to make the kappa statistics informative
+		if (!instance.classIsMissing() && random.nextInt(3) > 0) {
+			votes[(int) instance.classValue()] += 1.0;
+		}
+		return votes;
+	}
+
+	// unitWeightsCount - the number of instances of weight 1, the weights of the following instances vary
+	private static void assertSameAsCopies(boolean window, int unitWeightsCount) {
+		BasicClassificationPerformanceEvaluator evaluator = newEvaluator(window);
+		MultiBinClassificationPerformanceEvaluator multiBinEvaluator = new MultiBinClassificationPerformanceEvaluator(
+				evaluator, BIN_COUNT);
+		BinnedPerformanceEvaluator<Example<Instance>>[] sharedBins = newBins(BIN_COUNT);
+		BinnedPerformanceEvaluator<Example<Instance>>[] copiedBins = newBins(BIN_COUNT);
+		for (int bin = 0; bin < BIN_COUNT; bin++) {
+			sharedBins[bin] = multiBinEvaluator.getBin(bin);
+			copiedBins[bin] = (BasicClassificationPerformanceEvaluator) evaluator.copy();
+		}
+
+		RandomRBFGenerator stream = new RandomRBFGenerator();
+		stream.getOptions().setViaCLIString("-c 4");
+		stream.prepareForUse();
+		Random random = new Random(unitWeightsCount);
+		double[] weights = { 0.0, 0.5, 1.0, 2.0 };
+		for (int i = 0; i < 3000; i++) {
+			Instance instance = stream.nextInstance().getData();
+			if (i >= unitWeightsCount) {
+				instance.setWeight(weights[random.nextInt(weights.length)]);
+			}
+			Example<Instance> example = new InstanceExample(instance);
+
+			// predictions for an instance waiting for its label are counted by the bin they are made in
+			Instance unlabelledInstance = instance.copy();
+			unlabelledInstance.setMissing(unlabelledInstance.classIndex());
+			Example<Instance> unlabelledExample = new InstanceExample(unlabelledInstance);
+			int predictionBin = random.nextInt(BIN_COUNT);
+			double[] unlabelledVotes = randomVotes(random, unlabelledInstance);
+			sharedBins[predictionBin].addResult(unlabelledExample, unlabelledVotes);
+			copiedBins[predictionBin].addResult(unlabelledExample, unlabelledVotes);
+
+			// every bin receives one result for a labelled instance, the prediction made in the first bin of a range
+			// or in a previous bin is cloned to the following bins of the range
+			int fromBin = 0;
+			while (fromBin < BIN_COUNT) {
+				int toBin = fromBin + random.nextInt(BIN_COUNT - fromBin);
+				double[] votes = randomVotes(random, instance);
+				int clonedFromBin = fromBin;
+				switch (random.nextInt(3)) {
+					case 0:
+						sharedBins[fromBin].addResult(example, votes);
+						copiedBins[fromBin].addResult(example, votes);
+						clonedFromBin++;
+						break;
+					case 1:
+						sharedBins[fromBin].addClonedResult(example, votes);
+						copiedBins[fromBin].addClonedResult(example, votes);
+						clonedFromBin++;
+						break;
+					default:
+						break;
+				}
+				if (clonedFromBin <= toBin) {
+					sharedBins[clonedFromBin].addClonedResults(sharedBins, clonedFromBin, toBin, example, votes);
+					copiedBins[clonedFromBin].addClonedResults(copiedBins, clonedFromBin, toBin, example, votes);
+				}
+				fromBin = toBin + 1;
+			}
+
+			for (int bin = 0; bin < BIN_COUNT; bin++) {
+				Measurement[] measurements = sharedBins[bin].getPerformanceMeasurements();
+				Measurement[] expectedMeasurements = copiedBins[bin].getPerformanceMeasurements();
+				assertEquals(expectedMeasurements.length, measurements.length);
+				for (int j = 0; j < measurements.length; j++) {
+					assertEquals(expectedMeasurements[j].getName(), measurements[j].getName());
+					assertEquals("bin " + bin + " " + expectedMeasurements[j].getName(),
+							expectedMeasurements[j].getValue(), measurements[j].getValue(), 0.0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBasicUnitWeights() {
+		assertSameAsCopies(false, Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testBasicVaryingWeights() {
+		assertSameAsCopies(false, 1000);
+	}
+
+	@Test
+	public void testWindowUnitWeights() {
+		assertSameAsCopies(true, Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testWindowVaryingWeights() {
+		assertSameAsCopies(true, 1000);
+	}
+
+	private static MultiBinClassificationPerformanceEvaluator newMultiBinEvaluator() {
+		return new MultiBinClassificationPerformanceEvaluator(newEvaluator(false), 3);
+	}
+
+	private static Example<Instance> nextExample(RandomRBFGenerator stream) {
+		return stream.nextInstance();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNextInstanceBeforeAllBins() {
+		MultiBinClassificationPerformanceEvaluator multiBinEvaluator = newMultiBinEvaluator();
+		RandomRBFGenerator stream = new RandomRBFGenerator();
+		stream.prepareForUse();
+		Example<Instance> example = nextExample(stream);
+		multiBinEvaluator.getBin(0).addResult(example, new double[] { 1, 0 });
+		multiBinEvaluator.getBin(1).addResult(example, new double[] { 1, 0 });
+		// the result for the last bin is missing
+		multiBinEvaluator.getBin(0).addResult(nextExample(stream), new double[] { 1, 0 });
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testTooManyResults() {
+		MultiBinClassificationPerformanceEvaluator multiBinEvaluator = newMultiBinEvaluator();
+		RandomRBFGenerator stream = new RandomRBFGenerator();
+		stream.prepareForUse();
+		Example<Instance> example = nextExample(stream);
+		BinnedPerformanceEvaluator<Example<Instance>>[] bins = newBins(3);
+		for (int bin = 0; bin < bins.length; bin++) {
+			bins[bin] = multiBinEvaluator.getBin(bin);
+		}
+		bins[0].addResult(example, new double[] { 1, 0 });
+		// the result of the first bin is cloned to all bins, including the first one
+		bins[0].addClonedResults(bins, 0, 2, example, new double[] { 1, 0 });
+	}
+
+}
@@ -0,0 +1,76 @@
+package moa.evaluation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import moa.classifiers.AbstractClassifier;
+import moa.classifiers.bayes.NaiveBayes;
+import moa.classifiers.meta.AdaptiveRandomForest;
+import moa.classifiers.trees.HoeffdingAdaptiveTree;
+import moa.classifiers.trees.HoeffdingTree;
+import moa.core.Example;
+import moa.streams.generators.RandomRBFGenerator;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Test RepredictionSweep
+ *
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class RepredictionSweepTest {
+
+	private static List<Example<Instance>> train(AbstractClassifier learner, int numTrain, int numTest) {
+		RandomRBFGenerator stream = new RandomRBFGenerator();
+		stream.prepareForUse();
+		learner.setModelContext(stream.getHeader());
+		learner.prepareForUse();
+		for (int i = 0; i < numTrain; i++) {
+			learner.trainOnInstance(stream.nextInstance());
+		}
+		List<Example<Instance>> examples = new ArrayList<Example<Instance>>(numTest);
+		for (int i = 0; i < numTest; i++) {
+			examples.add(stream.nextInstance());
+		}
+		return examples;
+	}
+
+	private static void assertSameAsSequential(AbstractClassifier learner) {
+		List<Example<Instance>> examples = train(learner, 20000, 2000);
+		RepredictionSweep sweep = new RepredictionSweep(4, learner);
+		assertTrue(sweep.isParallel());
+		double[][] votes = sweep.getVotesForInstances(learner, examples);
+		sweep.shutdown();
+		assertEquals(examples.size(), votes.length);
+		for (int i = 0; i < votes.length; i++) {
+			assertArrayEquals(learner.getVotesForInstance(examples.get(i)), votes[i], 0.0);
+		}
+	}
+
+	@Test
+	public void testHoeffdingTree() {
+		assertSameAsSequential(new HoeffdingTree());
+	}
+
+	@Test
+	public void testNaiveBayes() {
+		assertSameAsSequential(new NaiveBayes());
+	}
+
+	@Test
+	public void testUnsafeLearnersSequential() {
+		// the learner modifies its state while predicting
+		assertFalse(new RepredictionSweep(4, new AdaptiveRandomForest()).isParallel());
+		// the subclass overrides the predictions without declaring ConcurrentPredictor
+		assertFalse(new RepredictionSweep(4, new HoeffdingAdaptiveTree()).isParallel());
+		assertFalse(new RepredictionSweep(1, new HoeffdingTree()).isParallel());
+	}
+
+}
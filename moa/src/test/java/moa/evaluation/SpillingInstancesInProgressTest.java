@@ -0,0 +1,149 @@
+package moa.evaluation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import moa.core.InstanceExample;
+import moa.streams.generators.RandomRBFGenerator;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Test SpillingInstancesInProgress against the on-heap InstancesInProgress
+ *
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class SpillingInstancesInProgressTest {
+
+	private static void assertSameInstance(InstanceInProgress expected, InstanceInProgress actual) {
+		assertEquals(expected.getInstanceId(), actual.getInstanceId());
+		Instance expectedInstance = expected.getInstance();
+		Instance actualInstance = actual.getInstance();
+		assertArrayEquals(expectedInstance.toDoubleArray(), actualInstance.toDoubleArray(), 0.0);
+		assertEquals(expectedInstance.weight(), actualInstance.weight(), 0.0);
+		assertEquals(expectedInstance.instanceId(), actualInstance.instanceId(), 0.0);
+		assertEquals(expectedInstance.instanceTimeStamp(), actualInstance.instanceTimeStamp());
+		assertEquals(expected.getPredictionCount(), actual.getPredictionCount());
+		assertEquals(expected.getRepredictionCount(), actual.getRepredictionCount());
+		PredictionHistory expectedHistory = expected.getPredictionHistory();
+		PredictionHistory actualHistory = actual.getPredictionHistory();
+		assertEquals(expectedHistory.size(), actualHistory.size());
+		for (int i = 0; i < expectedHistory.size(); i++) {
+			assertArrayEquals(expectedHistory.getClassVotes(i), actualHistory.getClassVotes(i), 0.0);
+			assertEquals(expectedHistory.getPredictionTimeStamp(i), actualHistory.getPredictionTimeStamp(i));
+			assertEquals(expectedHistory.getPredictionType(i), actualHistory.getPredictionType(i));
+		}
+	}
+
+	private static double[] randomVotes(Random random) {
+		return new double[] { random.nextDouble(), random.nextDouble() };
+	}
+
+	@Test
+	public void testSameAsOnHeap() {
+		RandomRBFGenerator stream = new RandomRBFGenerator();
+		stream.prepareForUse();
+		Random random = new Random(1);
+		InstancesInProgress onHeap = new InstancesInProgress(3);
+		SpillingInstancesInProgress spilling = new SpillingInstancesInProgress(3, 4000, null);
+		// the ids of the instances whose labels arrive at a step
+		TreeMap<Integer, List<Long>> labelArrivals = new TreeMap<Integer, List<Long>>();
+		int maxSpilled = 0;
+		int labelled = 0;
+		for (int step = 0; step < 5000 || !labelArrivals.isEmpty(); step++) {
+			if (step < 5000) {
+				Instance instance = stream.nextInstance().getData();
+				instance.setInstanceId(step);
+				instance.setInstanceTimeStamp(step);
+				InstanceInProgress expected = new InstanceInProgress(new InstanceExample(instance.copy()), false);
+				InstanceInProgress actual = new InstanceInProgress(new InstanceExample(instance.copy()), false);
+				double[] votes = randomVotes(random);
+				expected.addPrediction(votes, step, PredictionItem.PredictionType.FIRST_PREDICTION);
+				actual.addPrediction(votes, step, PredictionItem.PredictionType.FIRST_PREDICTION);
+				onHeap.add(expected);
+				spilling.add(actual);
+				int arrival = step + 1 + random.nextInt(400);
+				if (!labelArrivals.containsKey(arrival)) {
+					labelArrivals.put(arrival, new ArrayList<Long>());
+				}
+				labelArrivals.get(arrival).add((long) step);
+			}
+			maxSpilled = Math.max(maxSpilled, spilling.getSpilledCount());
+
+			List<Long> arrivingLabels = labelArrivals.remove(step);
+			if (arrivingLabels == null) {
+				continue;
+			}
+			for (long instanceId : arrivingLabels) {
+				// brought back when the label arrives
+				InstanceInProgress expected = onHeap.remove(instanceId);
+				InstanceInProgress actual = spilling.remove(instanceId);
+				assertFalse(actual.isSpilled());
+				double[] votes = randomVotes(random);
+				expected.addPrediction(votes, step, PredictionItem.PredictionType.FINAL_PREDICTION);
+				actual.addPrediction(votes, step, PredictionItem.PredictionType.FINAL_PREDICTION);
+				assertSameInstance(expected, actual);
+				labelled++;
+
+				// brought back when due for re-prediction
+				ArrayList<InstanceInProgress> expectedDue = onHeap.nextLabelledInstance();
+				ArrayList<InstanceInProgress> actualDue = spilling.nextLabelledInstance();
+				assertEquals(expectedDue.size(), actualDue.size());
+				for (int i = 0; i < expectedDue.size(); i++) {
+					assertFalse(actualDue.get(i).isSpilled());
+					assertSameInstance(expectedDue.get(i), actualDue.get(i));
+					double[] repredictionVotes = randomVotes(random);
+					onHeap.addPrediction(expectedDue.get(i), repredictionVotes, step,
+							PredictionItem.PredictionType.REPREDICTION);
+					spilling.addPrediction(actualDue.get(i), repredictionVotes, step,
+							PredictionItem.PredictionType.REPREDICTION);
+				}
+				assertEquals(onHeap.size(), spilling.size());
+				assertEquals(onHeap.getPredictionCount(), spilling.getPredictionCount());
+				assertEquals(onHeap.getRepredictionCount(), spilling.getRepredictionCount());
+			}
+		}
+		assertEquals(5000, labelled);
+		assertTrue(maxSpilled > 100);
+		assertEquals(0, spilling.getSpilledCount());
+		spilling.close();
+	}
+
+	@Test
+	public void testSpillFiles() throws IOException {
+		// a file that is not empty is not overwritten
+		File existingFile = File.createTempFile("existing", ".spill");
+		existingFile.deleteOnExit();
+		FileWriter writer = new FileWriter(existingFile);
+		writer.write("data");
+		writer.close();
+		try {
+			new SpillingInstancesInProgress(3, 0, existingFile);
+			fail("A file that is not empty was used as the spill file");
+		} catch (RuntimeException ex) {
+			// expected
+		}
+		assertEquals(4, existingFile.length());
+
+		// a file created for spilling is deleted when the buffer is closed
+		File newFile = new File(existingFile.getPath() + ".new");
+		SpillingInstancesInProgress spilling = new SpillingInstancesInProgress(3, 0, newFile);
+		assertTrue(newFile.exists());
+		spilling.close();
+		assertFalse(newFile.exists());
+	}
+
+}
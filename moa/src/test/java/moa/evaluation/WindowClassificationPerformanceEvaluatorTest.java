@@ -0,0 +1,147 @@
+package moa.evaluation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import moa.core.InstanceExample;
+import moa.core.Measurement;
+import moa.streams.generators.RandomRBFGenerator;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Test WindowClassificationPerformanceEvaluator against the evaluator keeping a window estimator per measurement
+ *
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class WindowClassificationPerformanceEvaluatorTest {
+
+	// the evaluator before the window of results was kept as one ring of records
+	public static class EstimatorWindowClassificationPerformanceEvaluator extends BasicClassificationPerformanceEvaluator {
+
+		private static final long serialVersionUID = 1L;
+
+		protected int width;
+
+		public EstimatorWindowClassificationPerformanceEvaluator(int width) {
+			this.width = width;
+		}
+
+		@Override
+		protected Estimator newEstimator() {
+			return new WindowEstimator(this.width);
+		}
+
+		public class WindowEstimator implements Estimator {
+
+			private static final long serialVersionUID = 1L;
+
+			protected double[] window;
+
+			protected int posWindow;
+
+			protected int lenWindow;
+
+			protected int SizeWindow;
+
+			protected double sum;
+
+			protected double qtyNaNs;
+
+			public WindowEstimator(int sizeWindow) {
+				window = new double[sizeWindow];
+				SizeWindow = sizeWindow;
+				posWindow = 0;
+				lenWindow = 0;
+			}
+
+			public void add(double value) {
+				double forget = window[posWindow];
+				if (!Double.isNaN(forget)) {
+					sum -= forget;
+				} else
+					qtyNaNs--;
+				if (!Double.isNaN(value)) {
+					sum += value;
+				} else
+					qtyNaNs++;
+				window[posWindow] = value;
+				posWindow++;
+				if (posWindow == SizeWindow) {
+					posWindow = 0;
+				}
+				if (lenWindow < SizeWindow) {
+					lenWindow++;
+				}
+			}
+
+			public double estimation() {
+				if (lenWindow - qtyNaNs == 0)
+					return Double.NaN;
+
+				return sum / (lenWindow - qtyNaNs);
+			}
+		}
+	}
+
+	private static void assertSameMeasurements(int width) {
+		String options = "-o -p -r -f -e";
+		WindowClassificationPerformanceEvaluator evaluator = new WindowClassificationPerformanceEvaluator();
+		evaluator.getOptions().setViaCLIString("-w " + width + " " + options);
+		evaluator.prepareForUse();
+		EstimatorWindowClassificationPerformanceEvaluator expectedEvaluator = new EstimatorWindowClassificationPerformanceEvaluator(width);
+		expectedEvaluator.getOptions().setViaCLIString(options);
+		expectedEvaluator.prepareForUse();
+
+		RandomRBFGenerator stream = new RandomRBFGenerator();
+		stream.getOptions().setViaCLIString("-c 4");
+		stream.prepareForUse();
+		Random random = new Random(width);
+		double[] weights = { 0.0, 0.5, 1.0, 2.0 };
+		for (int i = 0; i < 5000; i++) {
+			Instance instance = stream.nextInstance().getData();
+			instance.setWeight(weights[random.nextInt(weights.length)]);
+			if (random.nextInt(10) == 0) {
+				instance.setMissing(instance.classIndex());
+			}
+			double[] votes = new double[4];
+			for (int j = 0; j < votes.length; j++) {
+				votes[j] = random.nextDouble();
+			}
+			// most of the predictions are correct, to make the majority class and the kappa statistics informative
+			if (!instance.classIsMissing() && random.nextInt(3) > 0) {
+				votes[(int) instance.classValue()] += 1.0;
+			}
+			evaluator.addResult(new InstanceExample(instance), votes);
+			expectedEvaluator.addResult(new InstanceExample(instance), votes);
+
+			Measurement[] measurements = evaluator.getPerformanceMeasurements();
+			Measurement[] expectedMeasurements = expectedEvaluator.getPerformanceMeasurements();
+			assertEquals(expectedMeasurements.length, measurements.length);
+			for (int j = 0; j < measurements.length; j++) {
+				assertEquals(expectedMeasurements[j].getName(), measurements[j].getName());
+				assertEquals(expectedMeasurements[j].getName(), expectedMeasurements[j].getValue(),
+						measurements[j].getValue(), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testWidthOne() {
+		assertSameMeasurements(1);
+	}
+
+	@Test
+	public void testNarrowWindow() {
+		assertSameMeasurements(7);
+	}
+
+	@Test
+	public void testWideWindow() {
+		assertSameMeasurements(1000);
+	}
+
+}
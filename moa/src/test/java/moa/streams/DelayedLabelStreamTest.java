@@ -0,0 +1,122 @@
+package moa.streams;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Test the order of the instances and labels emitted by DelayedLabelStream
+ *
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class DelayedLabelStreamTest {
+
+	private static final int NUM_INSTANCES = 40;
+
+	// a file of instances with the delay of the label in the first attribute, missing or negative for some of them
+	private static File writeArffFile() throws IOException {
+		File file = File.createTempFile("delays", ".arff");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		writer.write("@relation delays\n@attribute delay numeric\n@attribute x numeric\n@attribute class {a, b}\n@data\n");
+		for (int i = 0; i < NUM_INSTANCES; i++) {
+			String delay = (i % 5 == 4) ? "?" : (i % 7 == 6) ? "-1" : Integer.toString(i % 4);
+			writer.write(delay + "," + i + "," + ((i % 3 == 0) ? "a" : "b") + "\n");
+		}
+		writer.close();
+		return file;
+	}
+
+	private static DelayedLabelStream newStream(String options) {
+		DelayedLabelStream stream = new DelayedLabelStream();
+		stream.getOptions().setViaCLIString(options);
+		stream.prepareForUse();
+		return stream;
+	}
+
+	// read the whole stream checking that the time stamps do not decrease, that a label is emitted after
+	// its instance and before an instance arriving at the same time stamp, returns the number of labels
+	private static int assertOrder(DelayedLabelStream stream, int timeStep) {
+		int numInstances = 0;
+		int numLabels = 0;
+		long lastTimeStamp = Long.MIN_VALUE;
+		Instance last = null;
+		while (stream.hasMoreInstances()) {
+			Instance instance = stream.nextInstance().getData();
+			long timeStamp = instance.instanceTimeStamp();
+			assertTrue(timeStamp >= lastTimeStamp);
+			if (instance.classIsMissing()) {
+				assertEquals(numInstances, instance.instanceId(), 0.0);
+				assertEquals((long) numInstances * timeStep, timeStamp);
+				numInstances++;
+			} else {
+				assertTrue(instance.instanceId() < numInstances);
+				// only the label of the instance itself, delayed by 0, can follow an instance of the same time stamp
+				if (last != null && last.classIsMissing() && timeStamp == lastTimeStamp) {
+					assertEquals(last.instanceId(), instance.instanceId(), 0.0);
+				}
+				numLabels++;
+			}
+			lastTimeStamp = timeStamp;
+			last = instance;
+		}
+		assertEquals(NUM_INSTANCES, numInstances);
+		assertNull(stream.nextInstance());
+		return numLabels;
+	}
+
+	@Test
+	public void testFixedDelay() throws IOException {
+		DelayedLabelStream stream = newStream("-s (ArffFileStream -f " + writeArffFile() + ") -d Fixed -l 6 -t 3");
+		// the label of an instance arrives at the time stamp of the instance two instances later, all labels
+		// are emitted, the last ones after the stream of instances has ended
+		assertEquals(NUM_INSTANCES, assertOrder(stream, 3));
+	}
+
+	@Test
+	public void testAttributeDelay() throws IOException {
+		DelayedLabelStream stream = newStream("-s (ArffFileStream -f " + writeArffFile() + ") -d Attribute -a 1");
+		int numLabelled = 0;
+		for (int i = 0; i < NUM_INSTANCES; i++) {
+			if (i % 5 != 4 && i % 7 != 6) {
+				numLabelled++;
+			}
+		}
+		assertEquals(numLabelled, assertOrder(stream, 1));
+	}
+
+	private static List<Instance> read(DelayedLabelStream stream, int count) {
+		List<Instance> instances = new ArrayList<Instance>();
+		for (int i = 0; i < count; i++) {
+			instances.add(stream.nextInstance().getData());
+		}
+		return instances;
+	}
+
+	@Test
+	public void testRestartReplaysDelays() {
+		DelayedLabelStream stream = newStream("-s generators.RandomRBFGenerator -d Lomax -l 20");
+		List<Instance> expected = read(stream, 2000);
+		stream.restart();
+		List<Instance> actual = read(stream, 2000);
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals("instance " + i, expected.get(i).instanceId(), actual.get(i).instanceId(), 0.0);
+			assertEquals("instance " + i, expected.get(i).instanceTimeStamp(), actual.get(i).instanceTimeStamp());
+			assertArrayEquals("instance " + i, expected.get(i).toDoubleArray(), actual.get(i).toDoubleArray(), 0.0);
+		}
+		assertFalse(stream.pendingLabels.isEmpty());
+	}
+
+}
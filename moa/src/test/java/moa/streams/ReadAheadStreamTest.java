@@ -0,0 +1,59 @@
+package moa.streams;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import moa.streams.generators.RandomRBFGenerator;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Test ReadAheadStream against the stream it reads ahead
+ *
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class ReadAheadStreamTest {
+
+	private static int countReadingThreads() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("read ahead") && thread.isAlive()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testSameInstancesAndClose() throws IOException {
+		int readingThreads = countReadingThreads();
+		ReadAheadStream stream = new ReadAheadStream();
+		stream.getOptions().setViaCLIString("-s generators.RandomRBFGenerator -d 7");
+		stream.prepareForUse();
+		RandomRBFGenerator expectedStream = new RandomRBFGenerator();
+		expectedStream.prepareForUse();
+		for (int restart = 0; restart < 2; restart++) {
+			for (int i = 0; i < 1000; i++) {
+				assertTrue(stream.hasMoreInstances());
+				Instance expected = expectedStream.nextInstance().getData();
+				Instance actual = stream.nextInstance().getData();
+				assertArrayEquals("instance " + i, expected.toDoubleArray(), actual.toDoubleArray(), 0.0);
+			}
+			stream.restart();
+			expectedStream.restart();
+		}
+		assertEquals(readingThreads + 1, countReadingThreads());
+
+		// the stream never ends, the reading thread waits for a free slot until it is closed
+		stream.close();
+		assertEquals(readingThreads, countReadingThreads());
+		assertFalse(stream.hasMoreInstances());
+	}
+
+}
@@ -0,0 +1,57 @@
+package moa.tasks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import moa.streams.BinaryInstanceFileStream;
+import moa.streams.DelayedLabelStream;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Test reading a file written by WriteStreamToBinaryFile with BinaryInstanceFileStream
+ *
+ * @author Maciej Grzenda (M.Grzenda@mini.pw.edu.pl)
+ */
+public class WriteStreamToBinaryFileTest {
+
+	private static final String STREAM = "-s generators.RandomTreeGenerator -d Exponential -l 100";
+
+	private static final int NUM_INSTANCES = 5000;
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		File file = File.createTempFile("stream", ".bin");
+		file.deleteOnExit();
+		WriteStreamToBinaryFile task = new WriteStreamToBinaryFile();
+		task.getOptions().setViaCLIString("-s (DelayedLabelStream " + STREAM + ") -f " + file + " -m " + NUM_INSTANCES);
+		task.doTask(new NullMonitor(), null);
+
+		// the same stream generated again
+		DelayedLabelStream expectedStream = new DelayedLabelStream();
+		expectedStream.getOptions().setViaCLIString(STREAM);
+		expectedStream.prepareForUse();
+		BinaryInstanceFileStream stream = new BinaryInstanceFileStream(file.getPath());
+		stream.prepareForUse();
+		assertEquals(expectedStream.getHeader().numAttributes(), stream.getHeader().numAttributes());
+		assertEquals(expectedStream.getHeader().classIndex(), stream.getHeader().classIndex());
+		for (int i = 0; i < NUM_INSTANCES; i++) {
+			assertTrue("instance " + i, stream.hasMoreInstances());
+			Instance expected = expectedStream.nextInstance().getData();
+			Instance actual = stream.nextInstance().getData();
+			assertArrayEquals("instance " + i, expected.toDoubleArray(), actual.toDoubleArray(), 0.0);
+			assertEquals("instance " + i, expected.weight(), actual.weight(), 0.0);
+			assertEquals("instance " + i, expected.instanceId(), actual.instanceId(), 0.0);
+			assertEquals("instance " + i, expected.instanceTimeStamp(), actual.instanceTimeStamp());
+		}
+		assertFalse(stream.hasMoreInstances());
+	}
+
+}